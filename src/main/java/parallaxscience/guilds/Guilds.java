@@ -6,6 +6,7 @@ import net.minecraftforge.fml.common.Mod;
 import net.minecraftforge.fml.common.Mod.EventHandler;
 import org.apache.logging.log4j.Logger;
 import parallaxscience.guilds.alliance.AllianceCache;
+import parallaxscience.guilds.capability.PlayerData;
 import parallaxscience.guilds.commands.CommandAlliance;
 import parallaxscience.guilds.commands.CommandGuild;
 import parallaxscience.guilds.commands.CommandRaid;
@@ -13,6 +14,7 @@ import parallaxscience.guilds.events.ChunkEvents;
 import parallaxscience.guilds.events.GuildEvents;
 import parallaxscience.guilds.guild.ChunkCache;
 import parallaxscience.guilds.guild.GuildCache;
+import parallaxscience.guilds.persistence.PersistenceService;
 import parallaxscience.guilds.raid.RaidCache;
 import parallaxscience.guilds.utility.FileUtility;
 import parallaxscience.guilds.utility.MessageUtility;
@@ -65,8 +67,10 @@ public class Guilds
     {
         logger = event.getModLog();
 
+        PlayerData.register();
         MinecraftForge.EVENT_BUS.register(new GuildEvents());
         MinecraftForge.EVENT_BUS.register(new ChunkEvents());
+        MinecraftForge.EVENT_BUS.register(new PersistenceService());
     }
 
     /**
@@ -114,4 +118,30 @@ public class Guilds
 
         RaidCache.massRestore(event);
     }
-}
\ No newline at end of file
+
+    /**
+     * Called whenever the server starts stopping
+     * Writes every changed file before the worlds are saved
+     * @param event FMLServerStoppingEvent
+     */
+    @Mod.EventHandler
+    @SuppressWarnings("unused")
+    public void onServerStopping(FMLServerStoppingEvent event)
+    {
+        GuildCache.save();
+        ChunkCache.save();
+        PersistenceService.flush();
+    }
+
+    /**
+     * Called once the server has stopped
+     * Writes the claims of the worlds that were unloaded while stopping
+     * @param event FMLServerStoppedEvent
+     */
+    @Mod.EventHandler
+    @SuppressWarnings("unused")
+    public void onServerStopped(FMLServerStoppedEvent event)
+    {
+        PersistenceService.flush();
+    }
+}
@@ -1,7 +1,12 @@
 package parallaxscience.guilds.alliance;
 
+import parallaxscience.guilds.guild.GuildRegistry;
+import java.io.DataInput;
+import java.io.DataOutput;
+import java.io.IOException;
 import java.io.Serializable;
 import java.util.ArrayList;
+import java.util.List;
 
 /**
  * Class used to represent an alliance
@@ -11,63 +16,152 @@ import java.util.ArrayList;
 public class Alliance implements Serializable
 {
     /**
-     * List of all of the guilds in the alliance
+     * Serialization version of the class
+     * Matches the version of the original class so older save files can still be read
      */
-    private ArrayList<String> guilds;
+    private static final long serialVersionUID = -1835619803015714869L;
 
     /**
-     * List of the guilds that have been invited to the alliance
+     * List of the ids of all of the guilds in the alliance
+     * @see GuildRegistry
      */
-    private ArrayList<String> invitees;
+    private ArrayList<Integer> guilds;
 
     /**
-     * Constructor for the Alliance class
-     * @param guildName String representing new guild name
+     * List of the ids of the guilds that have been invited to the alliance
+     * @see GuildRegistry
      */
-    Alliance(String guildName)
+    private ArrayList<Integer> invitees;
+
+    /**
+     * Constructor for an empty alliance
+     * Used when an alliance is read from file
+     */
+    private Alliance()
     {
         guilds = new ArrayList<>();
         invitees = new ArrayList<>();
-        guilds.add(guildName);
+    }
+
+    /**
+     * Constructor for the Alliance class
+     * @param guildId int id of the founding guild
+     */
+    Alliance(int guildId)
+    {
+        this();
+        guilds.add(guildId);
+    }
+
+    /**
+     * Writes the alliance to a save file
+     * @param output DataOutput to write to
+     * @see parallaxscience.guilds.persistence.SaveFormat
+     */
+    void writeTo(DataOutput output) throws IOException
+    {
+        output.writeInt(guilds.size());
+        for(int guildId : guilds) output.writeInt(guildId);
+        output.writeInt(invitees.size());
+        for(int guildId : invitees) output.writeInt(guildId);
+    }
+
+    /**
+     * Reads an alliance from a save file
+     * Guilds that no longer exist are dropped
+     * @param input DataInput to read from
+     * @return Alliance that was read
+     * @see parallaxscience.guilds.persistence.SaveFormat
+     */
+    static Alliance readFrom(DataInput input) throws IOException
+    {
+        Alliance alliance = new Alliance();
+        readGuildIds(input, alliance.guilds);
+        readGuildIds(input, alliance.invitees);
+        return alliance;
+    }
+
+    /**
+     * Reads a list of guild ids from a save file, skipping guilds that no longer exist
+     * @param input DataInput to read from
+     * @param ids Integer ArrayList to add the ids to
+     */
+    private static void readGuildIds(DataInput input, ArrayList<Integer> ids) throws IOException
+    {
+        int count = input.readInt();
+        for(int i = 0; i < count; i++)
+        {
+            int id = input.readInt();
+            if(GuildRegistry.getGuild(id) != null) ids.add(id);
+        }
+    }
+
+    /**
+     * Called after an alliance is read from file
+     * Alliances saved before guild ids were introduced hold guild names, which are converted to ids
+     * Guilds that no longer exist are dropped
+     * @return this alliance
+     */
+    private Object readResolve()
+    {
+        guilds = toGuildIds(guilds);
+        invitees = toGuildIds(invitees);
+        return this;
+    }
+
+    /**
+     * Converts a saved list of guild names or ids to a list of guild ids
+     * @param saved List read from file
+     * @return Integer ArrayList of guild ids
+     */
+    private static ArrayList<Integer> toGuildIds(List<?> saved)
+    {
+        ArrayList<Integer> ids = new ArrayList<>();
+        for(Object guild : saved)
+        {
+            int id = guild instanceof String ? GuildRegistry.getGuildId((String) guild) : (Integer) guild;
+            if(id != GuildRegistry.NONE) ids.add(id);
+        }
+        return ids;
     }
 
     /**
      * Returns a list of guilds in the alliance
-     * @return String ArrayList of names of guilds in the alliance
+     * @return Integer ArrayList of ids of guilds in the alliance
      */
-    public ArrayList<String> getGuilds() {
+    public ArrayList<Integer> getGuilds() {
         return guilds;
     }
 
     /**
      * Removes a guild from the alliance
-     * @param guild String of guild name
+     * @param guildId int id of the guild
      */
-    void removeGuild(String guild)
+    void removeGuild(int guildId)
     {
-        guilds.remove(guild);
+        guilds.remove((Integer) guildId);
     }
 
     /**
      * Invites a guild to the alliance
-     * @param guild String of guild name
+     * @param guildId int id of the guild
      */
-    public void addInvitee(String guild)
+    public void addInvitee(int guildId)
     {
-        invitees.add(guild);
+        invitees.add(guildId);
     }
 
     /**
      * Accepts an invite for the alliance, then removes them from the invite list
      * A guild can only join if they have been invited
-     * @param guild String of guild name
+     * @param guildId int id of the guild
      * @return true if guild successfully joins
      */
-    public boolean acceptInvite(String guild)
+    public boolean acceptInvite(int guildId)
     {
-        if(!invitees.contains(guild)) return false;
-        guilds.add(guild);
-        invitees.remove(guild);
+        if(!invitees.contains(guildId)) return false;
+        guilds.add(guildId);
+        invitees.remove((Integer) guildId);
         return true;
     }
 
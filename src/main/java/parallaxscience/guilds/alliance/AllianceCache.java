@@ -1,7 +1,12 @@
 package parallaxscience.guilds.alliance;
 
 import parallaxscience.guilds.guild.Guild;
+import parallaxscience.guilds.persistence.PersistenceService;
+import parallaxscience.guilds.persistence.SaveFormat;
 import parallaxscience.guilds.utility.FileUtility;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
 import java.util.ArrayList;
 import java.util.HashMap;
 import java.util.List;
@@ -19,6 +24,12 @@ public class AllianceCache
      */
     private final static String fileName = FileUtility.guildDirectory + "/" + "AllianceCache.dat";
 
+    /**
+     * Marks the start of the AllianceCache save file
+     * @see SaveFormat
+     */
+    private static final int MAGIC = 0x474C4441;
+
     /**
      * List of all of the alliances
      * @see HashMap
@@ -28,29 +39,33 @@ public class AllianceCache
     /**
      * Initialize function for the class
      * Attempts to load the alliance data from file
+     * Files saved by older versions of the mod are migrated to the binary format
      * If no alliance data is found, create a new HashMap
      */
     @SuppressWarnings("unchecked")
     public static void initialize()
     {
+        boolean legacy = false;
         try
         {
-            alliances = (HashMap<String, Alliance>) FileUtility.readFromFile(fileName);
+            legacy = SaveFormat.isLegacy(fileName);
+            alliances = legacy ? (HashMap<String, Alliance>) FileUtility.readFromFile(fileName) : load();
         }
         catch(Exception e)
         {
             alliances = new HashMap<>();
         }
+        if(legacy) save();
     }
 
     /**
      * Creates a new alliance
      * @param alliance String name of the alliance
-     * @param guildName String name of the guild
+     * @param guildId int id of the guild
      */
-    public static void createAlliance(String alliance, String guildName)
+    public static void createAlliance(String alliance, int guildId)
     {
-        alliances.put(alliance, new Alliance(guildName));
+        alliances.put(alliance, new Alliance(guildId));
     }
 
     /**
@@ -60,12 +75,12 @@ public class AllianceCache
      */
     public static void leaveAlliance(Guild guild)
     {
-        String guildName = guild.getGuildName();
-        Alliance alliance = getAlliance(guildName);
+        String allianceName = guild.getAlliance();
+        Alliance alliance = getAlliance(allianceName);
         if(alliance != null)
         {
-            alliance.removeGuild(guild.getGuildName());
-            if(alliance.getGuildCount() == 0) alliances.remove(guildName);
+            alliance.removeGuild(guild.getId());
+            if(alliance.getGuildCount() == 0) alliances.remove(allianceName);
         }
         guild.setAlliance(null);
     }
@@ -95,10 +110,54 @@ public class AllianceCache
     }
 
     /**
-     * Saves the alliance data to file
+     * Marks the alliance data to be saved to file
+     * The data is written in the background at the end of the tick
+     * @see PersistenceService
      */
     public static void save()
     {
-        FileUtility.saveToFile(fileName, alliances);
+        PersistenceService.markDirty(fileName, AllianceCache::serialize);
+    }
+
+    /**
+     * Reads the alliance data from file, one alliance at a time
+     * @return HashMap of alliances, keyed by name
+     */
+    private static HashMap<String, Alliance> load() throws IOException
+    {
+        try(DataInputStream input = SaveFormat.open(fileName, MAGIC))
+        {
+            int count = input.readInt();
+            HashMap<String, Alliance> loaded = new HashMap<>(count * 2);
+            for(int i = 0; i < count; i++)
+            {
+                String name = input.readUTF();
+                loaded.put(name, Alliance.readFrom(input));
+            }
+            return loaded;
+        }
+    }
+
+    /**
+     * Writes the alliance data in the binary format
+     * @return byte array of the alliance data
+     */
+    private static byte[] serialize() throws IOException
+    {
+        return SaveFormat.write(MAGIC, AllianceCache::writeAlliances);
+    }
+
+    /**
+     * Writes every alliance
+     * @param output DataOutputStream to write to
+     */
+    private static void writeAlliances(DataOutputStream output) throws IOException
+    {
+        output.writeInt(alliances.size());
+        for(Map.Entry<String, Alliance> entry : alliances.entrySet())
+        {
+            output.writeUTF(entry.getKey());
+            entry.getValue().writeTo(output);
+        }
     }
 }
@@ -0,0 +1,137 @@
+package parallaxscience.guilds.capability;
+
+import net.minecraft.entity.player.EntityPlayer;
+import net.minecraft.entity.player.EntityPlayerMP;
+import net.minecraft.nbt.NBTBase;
+import net.minecraft.server.MinecraftServer;
+import net.minecraft.util.EnumFacing;
+import net.minecraftforge.common.capabilities.Capability;
+import net.minecraftforge.common.capabilities.CapabilityInject;
+import net.minecraftforge.common.capabilities.CapabilityManager;
+import net.minecraftforge.fml.common.FMLCommonHandler;
+import parallaxscience.guilds.guild.Guild;
+import parallaxscience.guilds.guild.GuildCache;
+import parallaxscience.guilds.raid.Raid;
+import parallaxscience.guilds.raid.RaidCache;
+import java.util.UUID;
+
+/**
+ * Player capability that holds a player's guild and raid
+ * Lets event handlers find them with a field read instead of a lookup by UUID
+ * Not saved with the player, it is rebuilt from the caches whenever the player logs in
+ * and updated by the caches whenever either of them changes
+ * @see PlayerDataProvider
+ * @author Tristan Jay
+ */
+public final class PlayerData
+{
+    /**
+     * The capability, injected by Forge once it has been registered
+     */
+    @CapabilityInject(PlayerData.class)
+    public static Capability<PlayerData> CAPABILITY = null;
+
+    /**
+     * The guild the player is a member of
+     */
+    private Guild guild;
+
+    /**
+     * The raid the player is taking part in
+     */
+    private Raid raid;
+
+    /**
+     * Registers the capability with Forge
+     * Must be called during pre-initialization
+     */
+    public static void register()
+    {
+        CapabilityManager.INSTANCE.register(PlayerData.class, new Capability.IStorage<PlayerData>()
+        {
+            /**
+             * Does nothing, the data is rebuilt from the caches instead of being saved
+             * @return null
+             */
+            @Override
+            public NBTBase writeNBT(Capability<PlayerData> capability, PlayerData instance, EnumFacing side)
+            {
+                return null;
+            }
+
+            /**
+             * Does nothing, the data is rebuilt from the caches instead of being saved
+             */
+            @Override
+            public void readNBT(Capability<PlayerData> capability, PlayerData instance, EnumFacing side, NBTBase nbt)
+            {
+            }
+        }, PlayerData::new);
+    }
+
+    /**
+     * Returns the data of a player
+     * @param player EntityPlayer reference
+     * @return PlayerData of the player, or null if the player does not have it
+     */
+    public static PlayerData get(EntityPlayer player)
+    {
+        return player.getCapability(CAPABILITY, null);
+    }
+
+    /**
+     * Rebuilds the data of a player from the guild and raid caches, if the player is online
+     * Called whenever the player's guild or raid changes
+     * @param player UUID of the player
+     */
+    public static void refresh(UUID player)
+    {
+        MinecraftServer server = FMLCommonHandler.instance().getMinecraftServerInstance();
+        if(server == null) return;
+        EntityPlayerMP entityPlayer = server.getPlayerList().getPlayerByUUID(player);
+        if(entityPlayer != null) refresh(entityPlayer);
+    }
+
+    /**
+     * Rebuilds the data of a player from the guild and raid caches
+     * Called whenever the player logs in
+     * @param player EntityPlayer reference
+     */
+    public static void refresh(EntityPlayer player)
+    {
+        PlayerData data = get(player);
+        if(data == null) return;
+        UUID playerId = player.getUniqueID();
+        data.guild = GuildCache.getPlayerGuild(playerId);
+        data.raid = RaidCache.getPlayerRaid(playerId);
+    }
+
+    /**
+     * Copies the data of another player
+     * Used when the player entity is replaced after death or leaving the end
+     * @param other PlayerData to copy
+     */
+    public void copyFrom(PlayerData other)
+    {
+        guild = other.guild;
+        raid = other.raid;
+    }
+
+    /**
+     * Returns the guild the player is a member of
+     * @return Guild object reference, or null if the player is not in a guild
+     */
+    public Guild getGuild()
+    {
+        return guild;
+    }
+
+    /**
+     * Returns the raid the player is taking part in
+     * @return Raid reference, or null if the player is not in a raid
+     */
+    public Raid getRaid()
+    {
+        return raid;
+    }
+}
@@ -0,0 +1,49 @@
+package parallaxscience.guilds.capability;
+
+import net.minecraft.util.EnumFacing;
+import net.minecraft.util.ResourceLocation;
+import net.minecraftforge.common.capabilities.Capability;
+import net.minecraftforge.common.capabilities.ICapabilityProvider;
+import parallaxscience.guilds.Guilds;
+
+/**
+ * Capability provider that attaches PlayerData to a player
+ * @see PlayerData
+ * @author Tristan Jay
+ */
+public final class PlayerDataProvider implements ICapabilityProvider
+{
+    /**
+     * Key the capability is attached under
+     */
+    public static final ResourceLocation KEY = new ResourceLocation(Guilds.MODID, "player_data");
+
+    /**
+     * The data of the player
+     */
+    private final PlayerData data = new PlayerData();
+
+    /**
+     * Returns whether or not the provider has a capability
+     * @param capability Capability to check
+     * @param facing unused
+     * @return true if the capability is PlayerData
+     */
+    @Override
+    public boolean hasCapability(Capability<?> capability, EnumFacing facing)
+    {
+        return capability == PlayerData.CAPABILITY;
+    }
+
+    /**
+     * Returns the instance of a capability
+     * @param capability Capability to return
+     * @param facing unused
+     * @return PlayerData of the player, or null for any other capability
+     */
+    @Override
+    public <T> T getCapability(Capability<T> capability, EnumFacing facing)
+    {
+        return capability == PlayerData.CAPABILITY ? PlayerData.CAPABILITY.cast(data) : null;
+    }
+}
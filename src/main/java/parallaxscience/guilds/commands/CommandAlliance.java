@@ -237,7 +237,7 @@ public class CommandAlliance extends CommandBase
         else
         {
             guild.setAlliance(alliance);
-            AllianceCache.createAlliance(alliance, guild.getGuildName());
+            AllianceCache.createAlliance(alliance, guild.getId());
             GuildCache.save();
             AllianceCache.save();
             MessageUtility.allianceMessage(sender, "New alliance: " + alliance + " has been formed!");
@@ -257,7 +257,7 @@ public class CommandAlliance extends CommandBase
         {
             Alliance alliance = AllianceCache.getAlliance(allianceName);
             if(alliance == null) MessageUtility.allianceMessage(sender, "That alliance does not exist!");
-            else if(!alliance.acceptInvite(guild.getGuildName())) MessageUtility.allianceMessage(sender, "Your guild has not been invited to " + allianceName);
+            else if(!alliance.acceptInvite(guild.getId())) MessageUtility.allianceMessage(sender, "Your guild has not been invited to " + allianceName);
             else
             {
                 guild.setAlliance(allianceName);
@@ -303,7 +303,7 @@ public class CommandAlliance extends CommandBase
             else if(inviteeGuild.getAlliance() != null) MessageUtility.allianceMessage(sender, "Invitee guild is already part of an alliance!");
             else
             {
-                AllianceCache.getAlliance(allianceName).addInvitee(invitee);
+                AllianceCache.getAlliance(allianceName).addInvitee(inviteeGuild.getId());
                 AllianceCache.save();
                 MessageUtility.allianceMessage(sender, "Successfully invited " + invitee + " to alliance!");
                 EntityPlayer guildMaster = sender.getEntityWorld().getPlayerEntityByUUID(inviteeGuild.getGuildMaster());
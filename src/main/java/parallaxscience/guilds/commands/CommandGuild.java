@@ -16,6 +16,7 @@ import parallaxscience.guilds.config.GeneralConfig;
 import parallaxscience.guilds.guild.ChunkCache;
 import parallaxscience.guilds.guild.GuildCache;
 import parallaxscience.guilds.guild.Guild;
+import parallaxscience.guilds.guild.GuildRegistry;
 import parallaxscience.guilds.raid.RaidCache;
 import parallaxscience.guilds.utility.CommandUtility;
 import parallaxscience.guilds.utility.MessageUtility;
@@ -389,7 +390,7 @@ public class CommandGuild extends CommandBase
     {
         if(guild == null) MessageUtility.guildMessage(sender, "You are not currently a part of a guild!");
         else if(!guild.getGuildMaster().equals(player)) MessageUtility.guildMessage(sender, "Only the Guild Master may disband the guild!");
-        else if(RaidCache.getRaid(guild.getGuildName()) != null) MessageUtility.guildMessage(sender, "You cannot disband a guild during a raid!");
+        else if(RaidCache.getRaid(guild.getId()) != null) MessageUtility.guildMessage(sender, "You cannot disband a guild during a raid!");
         else
         {
             if(guild.getAlliance() != null) AllianceCache.leaveAlliance(guild);
@@ -448,7 +449,7 @@ public class CommandGuild extends CommandBase
     {
         if(guild == null) MessageUtility.guildMessage(sender, "You are not currently a part of a guild!");
         else if(guild.getGuildMaster().equals(player)) MessageUtility.guildMessage(sender, "A Guild Master cannot leave, only disband!");
-        else if(RaidCache.getRaid(guild.getGuildName()) != null) MessageUtility.guildMessage(sender, "You cannot leave a guild during a raid!");
+        else if(RaidCache.getRaid(guild.getId()) != null) MessageUtility.guildMessage(sender, "You cannot leave a guild during a raid!");
         else
         {
             guild.removeMember(player);
@@ -500,22 +501,19 @@ public class CommandGuild extends CommandBase
         else if(!guild.isAdmin(player)) MessageUtility.guildMessage(sender, "You do not have permission to claim land!");
         else
         {
-            if(sender.getEntityWorld().provider.getDimension() != 0) MessageUtility.guildMessage(sender, "You can only claim land in the over world!");
+            int dimension = sender.getEntityWorld().provider.getDimension();
+            ChunkPos chunkPos = new ChunkPos(sender.getPosition());
+            String owner = ChunkCache.getChunkOwner(dimension, chunkPos);
+            if(owner != null) MessageUtility.guildMessage(sender, "This chunk is already claimed by " + owner + "!");
+            else if(guild.hasMaxClaim()) MessageUtility.guildMessage(sender, "Your guild has reached its max claim limit!");
+            else if(!ChunkCache.isConnected(dimension, chunkPos, guild)) MessageUtility.guildMessage(sender, "You cannot claim this chunk because it is not adjacent to your existing territory!");
             else
             {
-                ChunkPos chunkPos = new ChunkPos(sender.getPosition());
-                String owner = ChunkCache.getChunkOwner(chunkPos);
-                if(owner != null) MessageUtility.guildMessage(sender, "This chunk is already claimed by " + owner + "!");
-                else if(guild.hasMaxClaim()) MessageUtility.guildMessage(sender, "Your guild has reached its max claim limit!");
-                else if(!ChunkCache.isConnected(chunkPos, guild)) MessageUtility.guildMessage(sender, "You cannot claim this chunk because it is not adjacent to your existing territory!");
-                else
-                {
-                    ChunkCache.setChunkOwner(chunkPos, guild.getGuildName());
-                    guild.incrementTerritoryCount();
-                    GuildCache.save();
-                    ChunkCache.save();
-                    MessageUtility.guildMessage(sender, "Chunk successfully claimed!");
-                }
+                ChunkCache.setChunkOwner(dimension, chunkPos, guild.getId());
+                guild.incrementTerritoryCount();
+                GuildCache.save();
+                ChunkCache.save();
+                MessageUtility.guildMessage(sender, "Chunk successfully claimed!");
             }
         }
     }
@@ -532,13 +530,14 @@ public class CommandGuild extends CommandBase
         else if(!guild.isAdmin(player)) MessageUtility.guildMessage(sender, "You do not have permission to abandon land!");
         else
         {
+            int dimension = sender.getEntityWorld().provider.getDimension();
             ChunkPos chunkPos = new ChunkPos(sender.getPosition());
-            String owner = ChunkCache.getChunkOwner(chunkPos);
-            if(owner == null) MessageUtility.guildMessage(sender, "This chunk is not claimed!");
-            else if(!owner.equals(guild.getGuildName())) MessageUtility.guildMessage(sender, "This chunk belongs to " + owner + "!");
+            int owner = ChunkCache.getChunkOwnerId(dimension, chunkPos.x, chunkPos.z);
+            if(owner == GuildRegistry.NONE) MessageUtility.guildMessage(sender, "This chunk is not claimed!");
+            else if(owner != guild.getId()) MessageUtility.guildMessage(sender, "This chunk belongs to " + GuildRegistry.getGuildName(owner) + "!");
             else
             {
-                if(ChunkCache.removeChunkOwner(chunkPos))
+                if(ChunkCache.removeChunkOwner(dimension, chunkPos))
                 {
                     guild.decrementTerritoryCount();
                     GuildCache.save();
@@ -226,14 +226,14 @@ public class CommandRaid extends CommandBase
                 if(newGuild == null) MessageUtility.raidMessage(sender, "That guild does not exist!");
                 else
                 {
-                    Raid raid = RaidCache.getRaid(newRaidName);
+                    Raid raid = RaidCache.getRaid(newGuild.getId());
                     if(raid == null)
                     {
                         long remainingShield = guild.getRemainingShield();
                         if(remainingShield == 0)
                         {
                             MessageUtility.raidMessage(sender, "Successfully joined the raid on " + newRaidName + "!");
-                            RaidCache.createRaid(newRaidName, player);
+                            RaidCache.createRaid(newGuild.getId(), player);
                         }
                         else MessageUtility.raidMessage(sender, "That guild is still shielded for another " + remainingShield + " minutes!");
                     }
@@ -243,7 +243,7 @@ public class CommandRaid extends CommandBase
                         String alliance = guild.getAlliance();
                         if(alliance != null)
                         {
-                            if(alliance.equals(GuildCache.getGuild(newRaidName).getAlliance()))
+                            if(alliance.equals(newGuild.getAlliance()))
                             {
                                 if(raid.isStarted())
                                 {
@@ -277,7 +277,7 @@ public class CommandRaid extends CommandBase
     {
         if(guild == null) MessageUtility.raidMessage(sender, "You are not part of a guild!");
         else if(raid == null) MessageUtility.raidMessage(sender, "You are not currently a part of a raid!");
-        else if(raid.getDefendingGuild().equals(guild.getGuildName())) MessageUtility.raidMessage(sender, "You are not currently a part of a raid!"); //To hide a potential raid
+        else if(raid.getDefendingGuildId() == guild.getId()) MessageUtility.raidMessage(sender, "You are not currently a part of a raid!"); //To hide a potential raid
         else if(raid.isStarted()) MessageUtility.raidMessage(sender, "The raid preparation has already begun!");
         else
         {
@@ -20,4 +20,27 @@ public class GeneralConfig
     })
     @Config.Name("Maximum Name Length")
     public static int maxCharLength = 20;
+
+    /**
+     * The number of affected blocks above which an explosion is checked against claims on several threads
+     */
+    @Config.Comment({
+            "The number of affected blocks above which an explosion is checked against claims on several threads",
+            "Only useful for very large modded explosives",
+            "Default: 20000"
+    })
+    @Config.Name("Parallel Explosion Threshold")
+    @Config.RangeInt(min = 1000)
+    public static int parallelExplosionThreshold = 20000;
+
+    /**
+     * The least amount of time between two territory messages to the same player (in milliseconds)
+     */
+    @Config.Comment({
+            "The least amount of time between two territory messages to the same player (in milliseconds)",
+            "Default: 1500"
+    })
+    @Config.Name("Territory Message Cooldown")
+    @Config.RangeInt(min = 0, max = 60000)
+    public static int territoryMessageCooldown = 1500;
 }
@@ -42,4 +42,16 @@ public class RaidConfig
     })
     @Config.Name("Raid Shield Duration")
     public static int shieldDuration = 480;
+
+    /**
+     * How much time the block restore may use each tick after a raid (in milliseconds)
+     */
+    @Config.Comment({
+            "How much time the block restore may use each tick after a raid (in milliseconds)",
+            "At least one chunk is restored every tick",
+            "Default: 10"
+    })
+    @Config.Name("Restore Budget")
+    @Config.RangeInt(min = 1, max = 50)
+    public static int restoreBudget = 10;
 }
@@ -9,6 +9,7 @@ import net.minecraft.entity.player.EntityPlayerMP;
 import net.minecraft.init.Blocks;
 import net.minecraft.item.ItemSpade;
 import net.minecraft.util.math.BlockPos;
+import net.minecraft.util.math.MathHelper;
 import net.minecraft.util.math.RayTraceResult;
 import net.minecraftforge.event.entity.EntityEvent;
 import net.minecraftforge.event.entity.living.EnderTeleportEvent;
@@ -18,15 +19,16 @@ import net.minecraftforge.event.entity.player.PlayerInteractEvent;
 import net.minecraftforge.event.entity.player.UseHoeEvent;
 import net.minecraftforge.event.world.BlockEvent;
 import net.minecraftforge.event.world.ExplosionEvent;
+import net.minecraftforge.event.world.WorldEvent;
 import net.minecraftforge.fml.common.eventhandler.SubscribeEvent;
+import net.minecraftforge.fml.common.gameevent.PlayerEvent;
 import parallaxscience.guilds.guild.ChunkCache;
-import parallaxscience.guilds.guild.GuildCache;
+import parallaxscience.guilds.guild.GuildRegistry;
 import parallaxscience.guilds.guild.Guild;
-import parallaxscience.guilds.raid.Raid;
+import parallaxscience.guilds.protection.ProtectionService;
+import parallaxscience.guilds.protection.TerritoryTracker;
 import parallaxscience.guilds.raid.RaidCache;
 import parallaxscience.guilds.utility.MessageUtility;
-import java.util.ArrayList;
-import java.util.List;
 
 /**
  * EventHandler class for claimed chunk protection events
@@ -34,11 +36,54 @@ import java.util.List;
  */
 public class ChunkEvents
 {
+    /**
+     * Called whenever a world is loaded
+     * Used to load the claimed chunks of the world's dimension
+     * @param event Load
+     * @see WorldEvent.Load
+     */
+    @SubscribeEvent
+    @SuppressWarnings("unused")
+    public void onWorldLoad(WorldEvent.Load event)
+    {
+        if(event.getWorld().isRemote) return;
+        ChunkCache.loadDimension(event.getWorld().provider.getDimension());
+    }
+
+    /**
+     * Called whenever a world is unloaded
+     * Used to save and release the claimed chunks of the world's dimension
+     * @param event Unload
+     * @see WorldEvent.Unload
+     */
+    @SubscribeEvent
+    @SuppressWarnings("unused")
+    public void onWorldUnload(WorldEvent.Unload event)
+    {
+        if(event.getWorld().isRemote) return;
+        ChunkCache.unloadDimension(event.getWorld().provider.getDimension());
+    }
+
+    /**
+     * Called whenever a player logs out
+     * Used to forget the player's remembered protection decision and territory
+     * @param event PlayerLoggedOutEvent
+     * @see PlayerEvent.PlayerLoggedOutEvent
+     */
+    @SubscribeEvent
+    @SuppressWarnings("unused")
+    public void onPlayerLeave(PlayerEvent.PlayerLoggedOutEvent event)
+    {
+        ProtectionService.forget(event.player.getUniqueID());
+        TerritoryTracker.forget(event.player.getUniqueID());
+    }
+
     /**
      * Called whenever an entity enters a chunk
-     * Used to send messages to a player when they enter or exit claimed space
+     * Used to tell a player when they enter or exit claimed space
      * @param event EnteringChunk
      * @see EntityEvent.EnteringChunk
+     * @see TerritoryTracker
      */
     @SubscribeEvent
     @SuppressWarnings("unused")
@@ -47,13 +92,7 @@ public class ChunkEvents
         Entity entity = event.getEntity();
         if(entity instanceof EntityPlayerMP)
         {
-            String oldOwner = ChunkCache.getChunkOwner(event.getOldChunkX(), event.getOldChunkZ());
-            String newOwner = ChunkCache.getChunkOwner(event.getNewChunkX(), event.getNewChunkZ());
-            if(newOwner == null)
-            {
-                if(oldOwner != null) MessageUtility.chunkMessage(entity, "Entering Wilderness.");
-            }
-            else if(!newOwner.equals(oldOwner)) MessageUtility.chunkMessage(entity,"Entering the Territory of " + newOwner);
+            TerritoryTracker.enterChunk((EntityPlayerMP) entity, entity.dimension, event.getNewChunkX(), event.getNewChunkZ());
         }
     }
 
@@ -69,33 +108,17 @@ public class ChunkEvents
     {
         if(event.getWorld().isRemote) return;
         EntityPlayerMP player = (EntityPlayerMP) event.getPlayer();
-        Guild owner = GuildCache.getGuild(ChunkCache.getChunkOwner(event.getPos()));
-        if(owner == null) return;
-
-        Raid raid = RaidCache.getRaid(owner.getGuildName());
-        if(raid != null)
+        BlockPos blockPos = event.getPos();
+        ProtectionService.Decision decision = ProtectionService.getDecision(player, event.getWorld(), blockPos);
+        if(decision.isRaidActive())
         {
-            if(raid.isActive())
-            {
-                BlockPos blockPos = event.getPos();
-                IBlockState iBlockState = event.getWorld().getBlockState(blockPos);
-                if(iBlockState.getBlock().hasTileEntity(iBlockState))
-                {
-                    event.setCanceled(true);
-                    MessageUtility.chunkMessage(player, "You cannot break this block during a raid!");
-                }
-                else
-                {
-                    RaidCache.addRestoreBlock(raid.getDefendingGuild(), blockPos, iBlockState);
-                }
-            }
-            else if(!owner.isMember(player.getUniqueID()))
+            if(!RaidCache.addRestoreBlock(ChunkCache.getChunkOwnerId(event.getWorld(), blockPos), event.getWorld(), blockPos, event.getWorld().getBlockState(blockPos)))
             {
                 event.setCanceled(true);
-                MessageUtility.chunkMessage(player, "You cannot break blocks in another guilds territory!");
+                MessageUtility.chunkMessage(player, "You cannot break this block during a raid!");
             }
         }
-        else if(!owner.isMember(player.getUniqueID()))
+        else if(decision.isOutsider())
         {
             event.setCanceled(true);
             MessageUtility.chunkMessage(player, "You cannot break blocks in another guilds territory!");
@@ -117,10 +140,7 @@ public class ChunkEvents
         if(entity instanceof EntityPlayerMP)
         {
             EntityPlayerMP player = (EntityPlayerMP) entity;
-            Guild owner = GuildCache.getGuild(ChunkCache.getChunkOwner(event.getPos()));
-            if(owner == null) return;
-
-            if(!owner.isMember((player.getUniqueID())))
+            if(ProtectionService.getDecision(player, event.getWorld(), event.getPos()).isOutsider())
             {
                 event.setCanceled(true);
                 MessageUtility.chunkMessage(player, "You cannot trample crops in another guilds territory!");
@@ -146,26 +166,17 @@ public class ChunkEvents
         Entity entity = event.getEntity();
         if(entity instanceof EntityPlayerMP)
         {
-            Guild owner = GuildCache.getGuild(ChunkCache.getChunkOwner(result.getBlockPos().offset(result.sideHit)));
-            if(owner == null) return;
-
             EntityPlayerMP player = (EntityPlayerMP) entity;
-            Raid raid = RaidCache.getRaid(owner.getGuildName());
-            if(owner.isMember((player.getUniqueID())))
+            ProtectionService.Decision decision = ProtectionService.getDecision(player, event.getWorld(), result.getBlockPos().offset(result.sideHit));
+            if(decision.isOutsider())
             {
-                if(raid != null)
-                {
-                    if(raid.isActive())
-                    {
-                        event.setCanceled(true);
-                        MessageUtility.chunkMessage(player, "You cannot use fluids during a raid!");
-                    }
-                }
+                event.setCanceled(true);
+                MessageUtility.chunkMessage(player, "You cannot place fluids in another clans territory!");
             }
-            else
+            else if(decision.isRaidActive())
             {
                 event.setCanceled(true);
-                MessageUtility.chunkMessage(player, "You cannot place fluids in another clans territory!");
+                MessageUtility.chunkMessage(player, "You cannot use fluids during a raid!");
             }
         }
     }
@@ -185,24 +196,13 @@ public class ChunkEvents
         if(entity instanceof EntityPlayerMP)
         {
             EntityPlayerMP player = (EntityPlayerMP) entity;
-            Guild owner = GuildCache.getGuild(ChunkCache.getChunkOwner(event.getPos()));
-            if(owner == null) return;
-
-            Raid raid = RaidCache.getRaid(owner.getGuildName());
-            if(raid != null)
+            BlockPos blockPos = event.getPos();
+            ProtectionService.Decision decision = ProtectionService.getDecision(player, event.getWorld(), blockPos);
+            if(decision.isRaidActive())
             {
-                if(raid.isActive())
-                {
-                    BlockPos blockPos = event.getPos();
-                    RaidCache.addRestoreBlock(raid.getDefendingGuild(), blockPos, Blocks.AIR.getDefaultState());
-                }
-                else
-                {
-                    event.setCanceled(true);
-                    MessageUtility.chunkMessage(player, "You cannot place blocks in another guilds territory!");
-                }
+                RaidCache.addRestoreBlock(ChunkCache.getChunkOwnerId(event.getWorld(), blockPos), event.getWorld(), blockPos, Blocks.AIR.getDefaultState());
             }
-            else if(!owner.isMember(player.getUniqueID()))
+            else if(decision.hasRaid() || decision.isOutsider())
             {
                 event.setCanceled(true);
                 MessageUtility.chunkMessage(player, "You cannot place blocks in another guilds territory!");
@@ -225,24 +225,13 @@ public class ChunkEvents
         if(entity instanceof EntityPlayerMP)
         {
             EntityPlayerMP player = (EntityPlayerMP) entity;
-            Guild owner = GuildCache.getGuild(ChunkCache.getChunkOwner(event.getPos()));
-            if(owner == null) return;
-
-            Raid raid = RaidCache.getRaid(owner.getGuildName());
-            if(raid != null)
+            BlockPos blockPos = event.getPos();
+            ProtectionService.Decision decision = ProtectionService.getDecision(player, event.getWorld(), blockPos);
+            if(decision.isRaidActive())
             {
-                if(raid.isActive())
-                {
-                    BlockPos blockPos = event.getPos();
-                    RaidCache.addRestoreBlock(raid.getDefendingGuild(), blockPos, Blocks.AIR.getDefaultState());
-                }
-                else if(!owner.isMember(player.getUniqueID()))
-                {
-                    event.setCanceled(true);
-                    MessageUtility.chunkMessage(player, "You cannot place blocks in another guilds territory!");
-                }
+                RaidCache.addRestoreBlock(ChunkCache.getChunkOwnerId(event.getWorld(), blockPos), event.getWorld(), blockPos, Blocks.AIR.getDefaultState());
             }
-            if(!owner.isMember(player.getUniqueID()))
+            if(decision.isOutsider())
             {
                 event.setCanceled(true);
                 MessageUtility.chunkMessage(player, "You cannot place blocks in another guilds territory!");
@@ -261,7 +250,7 @@ public class ChunkEvents
     public void onPortalSpawn(BlockEvent.PortalSpawnEvent event)
     {
         if(event.getWorld().isRemote) return;
-        if(ChunkCache.getChunkOwner(event.getPos()) != null) event.setCanceled(true);
+        if(ChunkCache.isClaimed(event.getWorld(), event.getPos())) event.setCanceled(true);
     }
 
     /**
@@ -276,29 +265,18 @@ public class ChunkEvents
     {
         if(event.getWorld().isRemote) return;
         EntityPlayerMP player = (EntityPlayerMP) event.getEntityPlayer();
-        Guild owner = GuildCache.getGuild(ChunkCache.getChunkOwner(event.getPos()));
-        if(owner == null) return;
-
-        Raid raid = RaidCache.getRaid(owner.getGuildName());
-        if(raid != null)
+        ProtectionService.Decision decision = ProtectionService.getDecision(player, event.getWorld(), event.getPos());
+        if(decision.isRaidActive())
         {
-            if(raid.isActive())
-            {
-                IBlockState iBlockState = event.getWorld().getBlockState(event.getPos());
-                Block block = iBlockState.getBlock();
-                if(block.hasTileEntity(iBlockState) || (block == Blocks.GRASS && event.getItemStack().getItem() instanceof ItemSpade))
-                {
-                    event.setCanceled(true);
-                    MessageUtility.chunkMessage(player, "You cannot use this during a raid!");
-                }
-            }
-            else if(!owner.isMember(player.getUniqueID()))
+            IBlockState iBlockState = event.getWorld().getBlockState(event.getPos());
+            Block block = iBlockState.getBlock();
+            if(block.hasTileEntity(iBlockState) || (block == Blocks.GRASS && event.getItemStack().getItem() instanceof ItemSpade))
             {
                 event.setCanceled(true);
-                MessageUtility.chunkMessage(player, "You cannot interact with blocks in another guilds territory!");
+                MessageUtility.chunkMessage(player, "You cannot use this during a raid!");
             }
         }
-        else if(!owner.isMember(player.getUniqueID()))
+        else if(decision.isOutsider())
         {
             event.setCanceled(true);
             MessageUtility.chunkMessage(player, "You cannot interact with blocks in another guilds territory!");
@@ -320,19 +298,8 @@ public class ChunkEvents
         if(entity instanceof EntityPlayerMP)
         {
             EntityPlayerMP player = (EntityPlayerMP) entity;
-            Guild owner = GuildCache.getGuild(ChunkCache.getChunkOwner(new BlockPos(event.getTargetX(), event.getTargetY(), event.getTargetZ())));
-            if(owner == null) return;
-
-            Raid raid = RaidCache.getRaid(owner.getGuildName());
-            if(raid == null)
-            {
-                if(!owner.isMember((player.getUniqueID())))
-                {
-                    event.setCanceled(true);
-                    MessageUtility.chunkMessage(player, "You cannot teleport in another guilds territory!");
-                }
-            }
-            else if(!raid.isActive() || !owner.isMember(player.getUniqueID()))
+            ProtectionService.Decision decision = ProtectionService.getDecision(player, entity.dimension, new BlockPos(event.getTargetX(), event.getTargetY(), event.getTargetZ()));
+            if(decision.isOutsider() || decision == ProtectionService.Decision.MEMBER_RAID_PENDING)
             {
                 event.setCanceled(true);
                 MessageUtility.chunkMessage(player, "You cannot teleport in another guilds territory!");
@@ -352,24 +319,13 @@ public class ChunkEvents
     {
         if(event.getWorld().isRemote) return;
         EntityPlayerMP player = (EntityPlayerMP) event.getEntityPlayer();
-        Guild owner = GuildCache.getGuild(ChunkCache.getChunkOwner(event.getPos()));
-        if(owner == null) return;
-
-        Raid raid = RaidCache.getRaid(owner.getGuildName());
-        if(raid != null)
+        ProtectionService.Decision decision = ProtectionService.getDecision(player, event.getWorld(), event.getPos());
+        if(decision.isRaidActive())
         {
-            if(raid.isActive())
-            {
-                event.setCanceled(true);
-                MessageUtility.chunkMessage(player, "You cannot use a hoe during a raid!");
-            }
-            else if(!owner.isMember((player.getUniqueID())))
-            {
-                event.setCanceled(true);
-                MessageUtility.chunkMessage(player, "You cannot use a hoe in another guilds territory!");
-            }
+            event.setCanceled(true);
+            MessageUtility.chunkMessage(player, "You cannot use a hoe during a raid!");
         }
-        else if(!owner.isMember((player.getUniqueID())))
+        else if(decision.isOutsider())
         {
             event.setCanceled(true);
             MessageUtility.chunkMessage(player, "You cannot use a hoe in another guilds territory!");
@@ -388,63 +344,22 @@ public class ChunkEvents
     {
         if(event.getWorld().isRemote) return;
 
-        List<BlockPos> blocks = event.getAffectedBlocks();
-        ArrayList<BlockPos> removeBlocks = new ArrayList<>();
-        for(BlockPos blockPos : blocks)
-        {
-            String ownerName = ChunkCache.getChunkOwner(blockPos);
-            if(ownerName != null)
-            {
-                Raid raid = RaidCache.getRaid(ownerName);
-                if(raid == null) removeBlocks.add(blockPos);
-                else
-                {
-                    if(raid.isActive())
-                    {
-                        IBlockState iBlockState = event.getWorld().getBlockState(blockPos);
-                        if(iBlockState.getBlock().hasTileEntity(iBlockState)) removeBlocks.add(blockPos);
-                        else
-                        {
-                            RaidCache.addRestoreBlock(raid.getDefendingGuild(), blockPos, iBlockState);
-                        }
-                    }
-                    else removeBlocks.add(blockPos);
-                }
-            }
-        }
-        for(BlockPos blockPos : removeBlocks)
-        {
-            blocks.remove(blockPos);
-        }
+        ExplosionFilter.filterBlocks(event.getWorld(), event.getAffectedBlocks());
 
-        List<Entity> entities = event.getAffectedEntities();
-        ArrayList<Entity> removeEntities = new ArrayList<>();
-        for(Entity entity : entities)
-        {
-            if(entity instanceof EntityPlayerMP)
-            {
-                BlockPos entityPos = entity.getPosition();
-                String ownerName = ChunkCache.getChunkOwner(entityPos);
-                if(ownerName != null)
-                {
-                    Guild guild = GuildCache.getGuild(ownerName);
-                    if(guild.isMember(entity.getUniqueID()))
-                    {
-                        Raid raid = RaidCache.getRaid(guild.getGuildName());
-                        if(raid != null)
-                        {
-                            if(!raid.isActive()) removeEntities.add(entity);
-                        }
-                        else removeEntities.add(entity);
-                    }
-                }
+        event.getAffectedEntities().removeIf(ChunkEvents::isProtectedFromExplosion);
+    }
 
-            }
-        }
-        for(Entity entity : removeEntities)
-        {
-            entities.remove(entity);
-        }
+    /**
+     * Returns whether or not an entity is protected from explosions
+     * Players are protected inside their own guild's territory, unless it is being raided
+     * @param entity Entity caught in the explosion
+     * @return true if the entity should not be hurt
+     */
+    private static boolean isProtectedFromExplosion(Entity entity)
+    {
+        if(!(entity instanceof EntityPlayerMP)) return false;
+        ProtectionService.Decision decision = ProtectionService.getDecision((EntityPlayerMP) entity, entity.dimension, entity.getPosition());
+        return decision.isMember() && !decision.isRaidActive();
     }
 
     /**
@@ -460,23 +375,23 @@ public class ChunkEvents
         Entity entity = event.getEntityLiving();
         if(entity.getEntityWorld().isRemote) return;
 
-        Guild owner = GuildCache.getGuild(ChunkCache.getChunkOwner(entity.getPosition()));
-        if(owner == null) return;
+        //Read the chunk straight from the position, getPosition() would allocate a BlockPos for every hit
+        int x = MathHelper.floor(entity.posX) >> 4;
+        int z = MathHelper.floor(entity.posZ) >> 4;
 
+        //Players are answered from their memo first, unclaimed chunks are answered from the claim bitmap
+        //The owner is only looked up for claimed chunks
         if(entity instanceof EntityPlayerMP)
         {
-            if(owner.isMember(entity.getUniqueID()))
-            {
-                Raid raid = RaidCache.getRaid(owner.getGuildName());
-                if(raid != null)
-                {
-                    if(!raid.isActive()) event.setCanceled(true);
-                }
-                else event.setCanceled(true);
-            }
+            ProtectionService.Decision decision = ProtectionService.getDecision((EntityPlayerMP) entity, entity.dimension, x, z);
+            if(decision.isMember() && !decision.isRaidActive()) event.setCanceled(true);
         }
         else
         {
+            if(!ChunkCache.isClaimed(entity.dimension, x, z)) return;
+            Guild owner = GuildRegistry.getGuild(ChunkCache.getChunkOwnerId(entity.dimension, x, z));
+            if(owner == null) return;
+
             Entity damageSource = event.getSource().getTrueSource();
             if(damageSource == null) event.setCanceled(true);
             else if(entity instanceof EntityTameable)
@@ -489,7 +404,7 @@ public class ChunkEvents
             }
             else if(entity instanceof EntityAnimal)
             {
-                if(!owner.isMember(event.getSource().getTrueSource().getUniqueID())) event.setCanceled(true);
+                if(!owner.isMember(damageSource.getUniqueID())) event.setCanceled(true);
             }
         }
     }
@@ -0,0 +1,306 @@
+package parallaxscience.guilds.events;
+
+import net.minecraft.util.math.BlockPos;
+import net.minecraft.world.World;
+import parallaxscience.guilds.config.GeneralConfig;
+import parallaxscience.guilds.guild.ChunkCache;
+import parallaxscience.guilds.guild.ChunkMap;
+import parallaxscience.guilds.guild.ClaimSnapshot;
+import parallaxscience.guilds.guild.GuildRegistry;
+import parallaxscience.guilds.raid.Raid;
+import parallaxscience.guilds.raid.RaidCache;
+import java.util.ArrayList;
+import java.util.BitSet;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
+
+/**
+ * Class that removes protected blocks from an explosion
+ * The owner and raid state are resolved once per chunk instead of once per block,
+ * and the block list is filtered in place in a single pass
+ * Very large explosions are classified on several threads against a copy of the claims and raids,
+ * only the list changes and the raid restore are done on the server thread
+ * @see ChunkEvents
+ * @author Tristan Jay
+ */
+final class ExplosionFilter
+{
+    /**
+     * Decision for a chunk whose blocks can be destroyed and do not need restoring
+     */
+    private static final int ALLOW = -1;
+
+    /**
+     * Decision for a chunk whose blocks are protected
+     * Any other decision is the id of the raid that the chunk's blocks are restored by
+     */
+    private static final int DENY = -2;
+
+    /**
+     * Number of blocks below which a parallel classification task is not split any further
+     */
+    private static final int TASK_SIZE = 4096;
+
+    /**
+     * Functional interface used to decide what an explosion does to the blocks of a chunk
+     */
+    private interface Policy
+    {
+        /**
+         * Decides what an explosion does to the blocks of a chunk
+         * @param x int X coordinate of the chunk
+         * @param z int Z coordinate of the chunk
+         * @return ALLOW, DENY, or the id of the raid that restores the chunk's blocks
+         */
+        int decide(int x, int z);
+    }
+
+    /**
+     * Removes every protected block from the list of blocks an explosion destroys
+     * Blocks destroyed inside a raided guild's territory are added to the raid restore list
+     * @param world World the explosion is in
+     * @param blocks List of BlockPos the explosion destroys, changed in place
+     */
+    static void filterBlocks(World world, List<BlockPos> blocks)
+    {
+        int dimension = world.provider.getDimension();
+        int[] decisions = new int[blocks.size()];
+        if(decisions.length >= GeneralConfig.parallelExplosionThreshold)
+        {
+            Policy policy = new SnapshotPolicy(ChunkCache.getClaimSnapshot(dimension), RaidCache.getActiveRaidIds());
+            ForkJoinPool.commonPool().invoke(new ClassifyTask(policy, blocks, decisions, 0, decisions.length));
+        }
+        else classify(new LivePolicy(dimension), blocks, decisions, 0, decisions.length);
+        apply(world, blocks, decisions);
+    }
+
+    /**
+     * Decides what happens to a range of blocks
+     * The decision of the previous block's chunk is reused while the blocks stay in the same chunk
+     * @param policy Policy used to decide for each chunk
+     * @param blocks List of BlockPos the explosion destroys
+     * @param decisions int array the decision of each block is written to
+     * @param from index of the first block
+     * @param to index after the last block
+     */
+    private static void classify(Policy policy, List<BlockPos> blocks, int[] decisions, int from, int to)
+    {
+        long lastChunk = 0;
+        int lastDecision = GuildRegistry.NONE;
+        for(int i = from; i < to; i++)
+        {
+            BlockPos blockPos = blocks.get(i);
+            int x = blockPos.getX() >> 4;
+            int z = blockPos.getZ() >> 4;
+            long chunk = ChunkMap.pack(x, z);
+            if(chunk != lastChunk || lastDecision == GuildRegistry.NONE)
+            {
+                lastChunk = chunk;
+                lastDecision = policy.decide(x, z);
+            }
+            decisions[i] = lastDecision;
+        }
+    }
+
+    /**
+     * Removes the protected blocks from the list and adds the raided blocks to their raid restore list
+     * Raided blocks whose inventory cannot be emptied are removed from the list afterwards
+     * @param world World the explosion is in
+     * @param blocks List of BlockPos the explosion destroys, changed in place
+     * @param decisions decision of each block
+     */
+    private static void apply(World world, List<BlockPos> blocks, int[] decisions)
+    {
+        HashMap<Integer, ArrayList<BlockPos>> restoreBlocks = new HashMap<>();
+        int lastRaid = GuildRegistry.NONE;
+        ArrayList<BlockPos> lastRestore = null;
+
+        int kept = 0;
+        for(int i = 0; i < decisions.length; i++)
+        {
+            int decision = decisions[i];
+            if(decision == DENY) continue;
+
+            BlockPos blockPos = blocks.get(i);
+            if(decision != ALLOW)
+            {
+                if(decision != lastRaid)
+                {
+                    lastRaid = decision;
+                    lastRestore = restoreBlocks.computeIfAbsent(decision, raidId -> new ArrayList<>());
+                }
+                lastRestore.add(blockPos);
+            }
+            blocks.set(kept++, blockPos);
+        }
+        if(kept < decisions.length) blocks.subList(kept, decisions.length).clear();
+
+        HashSet<BlockPos> vetoed = new HashSet<>();
+        for(Map.Entry<Integer, ArrayList<BlockPos>> entry : restoreBlocks.entrySet())
+        {
+            vetoed.addAll(RaidCache.addRestoreBlocks(entry.getKey(), world, entry.getValue()));
+        }
+        if(!vetoed.isEmpty()) blocks.removeAll(vetoed);
+    }
+
+    /**
+     * Policy that reads the current claims and raids
+     * Each chunk is only decided once per explosion
+     * Must only be used on the server thread
+     */
+    private static final class LivePolicy implements Policy
+    {
+        /**
+         * Dimension of the explosion
+         */
+        private final int dimension;
+
+        /**
+         * Decisions that have already been made, keyed by packed chunk coordinates
+         */
+        private final ChunkMap decided = new ChunkMap();
+
+        /**
+         * Constructor for the LivePolicy class
+         * @param dimension int dimension of the explosion
+         */
+        private LivePolicy(int dimension)
+        {
+            this.dimension = dimension;
+        }
+
+        /**
+         * Decides what an explosion does to the blocks of a chunk
+         * @param x int X coordinate of the chunk
+         * @param z int Z coordinate of the chunk
+         * @return ALLOW, DENY, or the id of the raid that restores the chunk's blocks
+         */
+        @Override
+        public int decide(int x, int z)
+        {
+            long chunk = ChunkMap.pack(x, z);
+            int decision = decided.get(chunk);
+            if(decision != GuildRegistry.NONE) return decision;
+
+            int owner = ChunkCache.getChunkOwnerId(dimension, x, z);
+            if(owner == GuildRegistry.NONE) decision = ALLOW;
+            else
+            {
+                Raid raid = RaidCache.getRaid(owner);
+                decision = raid == null || !raid.isActive() ? DENY : raid.getDefendingGuildId();
+            }
+            decided.put(chunk, decision);
+            return decision;
+        }
+    }
+
+    /**
+     * Policy that reads a copy of the claims and raids taken when the explosion went off
+     * Nothing it reads is changed afterwards, so it can be used from several threads at once
+     */
+    private static final class SnapshotPolicy implements Policy
+    {
+        /**
+         * Owners of the claimed chunks in the explosion's dimension
+         */
+        private final ClaimSnapshot owners;
+
+        /**
+         * Ids of the raids that are past their preparation phase, indexed by raid id
+         */
+        private final BitSet activeRaids;
+
+        /**
+         * Constructor for the SnapshotPolicy class
+         * @param owners ClaimSnapshot of the explosion's dimension
+         * @param activeRaids BitSet of active raid ids, must not be changed afterwards
+         */
+        private SnapshotPolicy(ClaimSnapshot owners, BitSet activeRaids)
+        {
+            this.owners = owners;
+            this.activeRaids = activeRaids;
+        }
+
+        /**
+         * Decides what an explosion does to the blocks of a chunk
+         * @param x int X coordinate of the chunk
+         * @param z int Z coordinate of the chunk
+         * @return ALLOW, DENY, or the id of the raid that restores the chunk's blocks
+         */
+        @Override
+        public int decide(int x, int z)
+        {
+            int owner = owners.getOwner(x, z);
+            if(owner == GuildRegistry.NONE) return ALLOW;
+            return activeRaids.get(owner) ? owner : DENY;
+        }
+    }
+
+    /**
+     * Fork-join task that classifies a range of blocks
+     * Splits the range in half until it is small enough to classify directly
+     */
+    private static final class ClassifyTask extends RecursiveAction
+    {
+        /**
+         * Policy used to decide for each chunk, must be safe to use from several threads
+         */
+        private final Policy policy;
+
+        /**
+         * List of BlockPos the explosion destroys, only read
+         */
+        private final List<BlockPos> blocks;
+
+        /**
+         * Array the decision of each block is written to
+         */
+        private final int[] decisions;
+
+        /**
+         * Index of the first block
+         */
+        private final int from;
+
+        /**
+         * Index after the last block
+         */
+        private final int to;
+
+        /**
+         * Constructor for the ClassifyTask class
+         * @param policy Policy used to decide for each chunk
+         * @param blocks List of BlockPos the explosion destroys
+         * @param decisions int array the decision of each block is written to
+         * @param from index of the first block
+         * @param to index after the last block
+         */
+        private ClassifyTask(Policy policy, List<BlockPos> blocks, int[] decisions, int from, int to)
+        {
+            this.policy = policy;
+            this.blocks = blocks;
+            this.decisions = decisions;
+            this.from = from;
+            this.to = to;
+        }
+
+        /**
+         * Classifies the range, or splits it between two new tasks
+         */
+        @Override
+        protected void compute()
+        {
+            if(to - from <= TASK_SIZE)
+            {
+                classify(policy, blocks, decisions, from, to);
+                return;
+            }
+            int middle = (from + to) >>> 1;
+            invokeAll(new ClassifyTask(policy, blocks, decisions, from, middle), new ClassifyTask(policy, blocks, decisions, middle, to));
+        }
+    }
+}
@@ -1,5 +1,6 @@
 package parallaxscience.guilds.events;
 
+import net.minecraft.entity.Entity;
 import net.minecraft.entity.player.EntityPlayer;
 import net.minecraft.entity.player.EntityPlayerMP;
 import net.minecraft.util.text.ITextComponent;
@@ -7,12 +8,15 @@ import net.minecraft.util.text.Style;
 import net.minecraft.util.text.TextComponentString;
 import net.minecraft.util.text.TextFormatting;
 import net.minecraft.world.GameType;
+import net.minecraftforge.event.AttachCapabilitiesEvent;
 import net.minecraftforge.event.ServerChatEvent;
+import net.minecraftforge.event.entity.player.PlayerEvent.Clone;
+import net.minecraftforge.fml.common.eventhandler.EventPriority;
 import net.minecraftforge.fml.common.eventhandler.SubscribeEvent;
 import net.minecraftforge.fml.common.gameevent.PlayerEvent;
-import parallaxscience.guilds.guild.GuildCache;
+import parallaxscience.guilds.capability.PlayerData;
+import parallaxscience.guilds.capability.PlayerDataProvider;
 import parallaxscience.guilds.guild.Guild;
-import java.util.UUID;
 
 /**
  * EventHandler class for guild events
@@ -30,8 +34,8 @@ public class GuildEvents
     @SuppressWarnings("unused")
     public void onServerChat(ServerChatEvent event)
     {
-        UUID playerID = event.getPlayer().getUniqueID();
-        Guild guild = GuildCache.getPlayerGuild(playerID);
+        PlayerData data = PlayerData.get(event.getPlayer());
+        Guild guild = data == null ? null : data.getGuild();
         if(guild != null)
         {
             ITextComponent guildName = new TextComponentString(guild.getGuildName());
@@ -51,6 +55,48 @@ public class GuildEvents
         }
     }
 
+    /**
+     * Called whenever capabilities are attached to an entity
+     * Used to attach the guild data to every player on the server
+     * @param event AttachCapabilitiesEvent
+     * @see AttachCapabilitiesEvent
+     * @see PlayerData
+     */
+    @SubscribeEvent
+    @SuppressWarnings("unused")
+    public void onAttachCapabilities(AttachCapabilitiesEvent<Entity> event)
+    {
+        if(event.getObject() instanceof EntityPlayerMP) event.addCapability(PlayerDataProvider.KEY, new PlayerDataProvider());
+    }
+
+    /**
+     * Called whenever a player logs in
+     * Used to fill in the player's guild data
+     * @param event PlayerLoggedInEvent
+     * @see PlayerEvent.PlayerLoggedInEvent
+     */
+    @SubscribeEvent(priority = EventPriority.HIGHEST)
+    @SuppressWarnings("unused")
+    public void onPlayerLogin(PlayerEvent.PlayerLoggedInEvent event)
+    {
+        PlayerData.refresh(event.player);
+    }
+
+    /**
+     * Called whenever a player entity is replaced, after death or after leaving the end
+     * Used to carry the player's guild data over to the new entity
+     * @param event Clone
+     * @see Clone
+     */
+    @SubscribeEvent
+    @SuppressWarnings("unused")
+    public void onPlayerClone(Clone event)
+    {
+        PlayerData original = PlayerData.get(event.getOriginal());
+        PlayerData data = PlayerData.get(event.getEntityPlayer());
+        if(original != null && data != null) data.copyFrom(original);
+    }
+
     /**
      * Called on player respawn
      * Used top set the player back to survival mode after a raid death
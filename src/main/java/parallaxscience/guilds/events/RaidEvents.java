@@ -3,19 +3,19 @@ package parallaxscience.guilds.events;
 import net.minecraft.entity.EntityLivingBase;
 import net.minecraft.entity.player.EntityPlayer;
 import net.minecraft.entity.player.EntityPlayerMP;
-import net.minecraft.util.math.BlockPos;
 import net.minecraft.util.text.TextComponentString;
 import net.minecraft.world.GameType;
 import net.minecraftforge.event.entity.living.LivingDeathEvent;
 import net.minecraftforge.event.world.BlockEvent;
 import net.minecraftforge.fml.common.eventhandler.SubscribeEvent;
 import net.minecraftforge.fml.common.gameevent.PlayerEvent;
+import net.minecraftforge.fml.common.gameevent.TickEvent;
+import parallaxscience.guilds.capability.PlayerData;
 import parallaxscience.guilds.guild.ChunkCache;
 import parallaxscience.guilds.guild.Guild;
-import parallaxscience.guilds.guild.GuildCache;
+import parallaxscience.guilds.guild.GuildRegistry;
 import parallaxscience.guilds.raid.Raid;
 import parallaxscience.guilds.raid.RaidCache;
-import java.util.UUID;
 
 /**
  * EventHandler class for raid events
@@ -38,16 +38,15 @@ public class RaidEvents
         if(entityLiving instanceof EntityPlayerMP)
         {
             EntityPlayerMP player = (EntityPlayerMP) entityLiving;
-            UUID playerID = player.getUniqueID();
-            Guild guild = GuildCache.getPlayerGuild(playerID);
-            if(guild != null)
+            PlayerData data = PlayerData.get(player);
+            if(data != null && data.getGuild() != null)
             {
-                Raid raid = RaidCache.getPlayerRaid(playerID);
+                Raid raid = data.getRaid();
                 if(raid != null)
                 {
                     if(raid.isActive())
                     {
-                        raid.removePlayer(playerID);
+                        raid.removePlayer(player.getUniqueID());
                         player.setGameType(GameType.SPECTATOR);
                         player.connection.disconnect(new TextComponentString("You have been slain and are out of the fight!"));
                     }
@@ -70,10 +69,11 @@ public class RaidEvents
         if(entityPlayer instanceof EntityPlayerMP)
         {
             EntityPlayerMP player = (EntityPlayerMP) entityPlayer;
-            Guild guild = GuildCache.getPlayerGuild(player.getUniqueID());
+            PlayerData data = PlayerData.get(player);
+            Guild guild = data == null ? null : data.getGuild();
             if(guild != null)
             {
-                Raid raid = RaidCache.getRaid(guild.getGuildName());
+                Raid raid = RaidCache.getRaid(guild.getId());
                 if(raid != null)
                 {
                     if(raid.isActive()) player.connection.disconnect(new TextComponentString("Your guild is currently being raided!"));
@@ -96,13 +96,13 @@ public class RaidEvents
         if(entityPlayer instanceof EntityPlayerMP)
         {
             EntityPlayerMP player = (EntityPlayerMP) entityPlayer;
-            UUID playerID = player.getUniqueID();
-            if(GuildCache.getPlayerGuild(playerID) != null)
+            PlayerData data = PlayerData.get(player);
+            if(data != null && data.getGuild() != null)
             {
-                Raid raid = RaidCache.getPlayerRaid(playerID);
+                Raid raid = data.getRaid();
                 if(raid != null)
                 {
-                    raid.removePlayer(playerID);
+                    raid.removePlayer(player.getUniqueID());
                 }
             }
         }
@@ -120,11 +120,10 @@ public class RaidEvents
     {
         if(event.getWorld().isRemote) return;
 
-        BlockPos blockPos = event.getPos();
-        String guildName = ChunkCache.getChunkOwner(blockPos);
-        if(guildName != null)
+        int owner = ChunkCache.getChunkOwnerId(event.getWorld(), event.getPos());
+        if(owner != GuildRegistry.NONE)
         {
-            Raid raid = RaidCache.getRaid(guildName);
+            Raid raid = RaidCache.getRaid(owner);
             if(raid != null)
             {
                 if(raid.isActive())
@@ -135,4 +134,17 @@ public class RaidEvents
             }
         }
     }
+
+    /**
+     * Called at the start and end of every server tick during a raid
+     * Used to write the restore records of the tick to the raid journal in one go
+     * @param event ServerTickEvent
+     * @see TickEvent.ServerTickEvent
+     */
+    @SubscribeEvent
+    @SuppressWarnings("unused")
+    public void onServerTick(TickEvent.ServerTickEvent event)
+    {
+        if(event.phase == TickEvent.Phase.END) RaidCache.flushJournal();
+    }
 }
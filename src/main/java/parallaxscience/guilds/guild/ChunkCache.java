@@ -2,197 +2,249 @@ package parallaxscience.guilds.guild;
 
 import net.minecraft.util.math.BlockPos;
 import net.minecraft.util.math.ChunkPos;
-import parallaxscience.guilds.utility.FileUtility;
+import net.minecraft.world.World;
+import parallaxscience.guilds.protection.ProtectionService;
 import java.util.HashMap;
 import java.util.Map;
 
 /**
  * Class that is used to store and manage claimed chunk information
- * Holds the master list of claimed chunks
+ * Claims are split into one shard per dimension
+ * A shard is only loaded while its world is loaded, or while it is being claimed in
+ * Every owner lookup is answered here, loaded chunks do not carry a copy of their owner
+ * Event handlers only have a world and a position, and reaching the Chunk from those costs as much as the shard lookup
+ * @see ChunkShard
  * @author Tristan Jay
  */
 public final class ChunkCache
 {
     /**
-     * Filepath to the ChunkCache save file location
+     * The loaded chunk shards
+     * Key is the dimension id
+     * @see ChunkShard
      */
-    private static final String fileName = FileUtility.guildDirectory + "/" + "ChunkCache.dat";
+    private static HashMap<Integer, ChunkShard> shards;
 
     /**
-     * List of all of the claimed chunks and the owning guild
-     * Implements a double-HashMap for fast indexing
-     * @see HashMap
+     * Initialize function for the class
+     * Shards are loaded later, as their worlds load
+     * Must be called after the GuildCache has been initialized
      */
-    private static HashMap<Integer, HashMap<Integer, String>> chunkMap;
+    public static void initialize()
+    {
+        shards = new HashMap<>();
+    }
 
     /**
-     * Initialize function for the class
-     * Attempts to load the chunk data from file
-     * If no chunk data is found, create a new HashMap
+     * Loads the shard of a dimension, if it is not already loaded
+     * Called whenever a world is loaded
+     * @param dimension int dimension id
      */
-    @SuppressWarnings("unchecked")
-    public static void initialize()
+    public static void loadDimension(int dimension)
     {
-        try
-        {
-            chunkMap = (HashMap<Integer, HashMap<Integer, String>>) FileUtility.readFromFile(fileName);
-        }
-        catch(Exception e)
-        {
-            chunkMap = new HashMap<>();
-        }
+        getOrLoadShard(dimension);
+        ProtectionService.claimsChanged();
     }
 
     /**
-     * Returns the name of the owner of a chunk
+     * Saves and drops the shard of a dimension
+     * Called whenever a world is unloaded
+     * Only the changed region files are written, the index is only rebuilt once the changes outgrow the compaction threshold
+     * @param dimension int dimension id
+     */
+    public static void unloadDimension(int dimension)
+    {
+        ChunkShard shard = shards.remove(dimension);
+        if(shard != null) shard.save();
+        ProtectionService.claimsChanged();
+    }
+
+    /**
+     * Returns the id of the owner of a chunk
+     * A map probe for the shard, then the shard's overlay and the claim index
+     * @param dimension int dimension id
      * @param x X coordinate for the chunk
      * @param z Z coordinate for the chunk
-     * @return String name of the owning guild
+     * @return int id of the owning guild, or GuildRegistry.NONE if unclaimed
+     * @see GuildRegistry
      */
-    public static String getChunkOwner(int x, int z)
+    public static int getChunkOwnerId(int dimension, int x, int z)
     {
-        if(!chunkMap.containsKey(x)) return null;
-        return chunkMap.get(x).get(z);
+        ChunkShard shard = shards.get(dimension);
+        if(shard == null) return GuildRegistry.NONE;
+        return shard.getOwner(ChunkMap.pack(x, z));
     }
 
     /**
-     * Returns the name of the owner of a block
+     * Returns whether or not a chunk is claimed by any guild
+     * Only reads the overlay and the claim bitmaps of the claim index
+     * @param dimension int dimension id
+     * @param x X coordinate for the chunk
+     * @param z Z coordinate for the chunk
+     * @return true if the chunk is claimed
+     * @see ClaimIndex
+     */
+    public static boolean isClaimed(int dimension, int x, int z)
+    {
+        ChunkShard shard = shards.get(dimension);
+        return shard != null && shard.isClaimed(x, z);
+    }
+
+    /**
+     * Returns whether or not the chunk a block is in is claimed by any guild
+     * @param world World the block is in
      * @param blockPos BlockPos of the block
-     * @return String name of the owning guild
+     * @return true if the chunk is claimed
+     */
+    public static boolean isClaimed(World world, BlockPos blockPos)
+    {
+        return isClaimed(world.provider.getDimension(), blockPos.getX() >> 4, blockPos.getZ() >> 4);
+    }
+
+    /**
+     * Returns a read-only view of the claimed chunks of a dimension
+     * The view can be read from other threads, since later claims do not change it
+     * @param dimension int dimension id
+     * @return ClaimSnapshot of the dimension, empty if the dimension is not loaded
+     */
+    public static ClaimSnapshot getClaimSnapshot(int dimension)
+    {
+        ChunkShard shard = shards.get(dimension);
+        if(shard == null) return new ClaimSnapshot(ClaimIndex.empty(), new ChunkMap());
+        return shard.snapshot();
+    }
+
+    /**
+     * Returns the id of the owner of a block
+     * @param dimension int dimension id
+     * @param blockPos BlockPos of the block
+     * @return int id of the owning guild, or GuildRegistry.NONE if unclaimed
+     * @see GuildRegistry
+     */
+    public static int getChunkOwnerId(int dimension, BlockPos blockPos)
+    {
+        return getChunkOwnerId(dimension, blockPos.getX() >> 4, blockPos.getZ() >> 4);
+    }
+
+    /**
+     * Returns the id of the owner of a block
+     * @param world World the block is in
+     * @param blockPos BlockPos of the block
+     * @return int id of the owning guild, or GuildRegistry.NONE if unclaimed
+     * @see GuildRegistry
      */
-    public static String getChunkOwner(BlockPos blockPos)
+    public static int getChunkOwnerId(World world, BlockPos blockPos)
     {
-        ChunkPos chunkPos = new ChunkPos(blockPos);
-        return getChunkOwner(chunkPos.x, chunkPos.z);
+        return getChunkOwnerId(world.provider.getDimension(), blockPos);
     }
 
     /**
      * Returns the name of the owner of a chunk
+     * @param dimension int dimension id
      * @param chunkPos ChunkPos of the chunk
      * @return String name of the owning guild
      */
-    public static String getChunkOwner(ChunkPos chunkPos)
+    public static String getChunkOwner(int dimension, ChunkPos chunkPos)
     {
-        return getChunkOwner(chunkPos.x, chunkPos.z);
+        return GuildRegistry.getGuildName(getChunkOwnerId(dimension, chunkPos.x, chunkPos.z));
     }
 
     /**
-     * Checks to see if the chunk is connected to the rest of the guild's territory
+     * Checks to see if the chunk is connected to the rest of the guild's territory in the dimension
+     * A guild's first claim in a dimension is always allowed
+     * @param dimension int dimension id
      * @param chunkPos ChunkPos of the chunk
      * @param guild Guild object reference
      * @return true if the chunk is connected to the rest of the guild territory
      */
-    public static boolean isConnected(ChunkPos chunkPos, Guild guild)
+    public static boolean isConnected(int dimension, ChunkPos chunkPos, Guild guild)
     {
-        if(guild.getTerritoryCount() == 0) return true;
-
-        String guildName = guild.getGuildName();
+        ChunkSet territory = getOrLoadShard(dimension).getTerritory(guild.getId());
+        if(territory == null) return true;
 
         int x = chunkPos.x;
         int z = chunkPos.z;
-        if(chunkMap.containsKey(x))
-        {
-            if(guildName.equals(chunkMap.get(x).get(z + 1))) return true;
-            else if(guildName.equals(chunkMap.get(x).get(z - 1))) return true;
-        }
-        if(chunkMap.containsKey(x + 1))
-        {
-            if(guildName.equals(chunkMap.get(x + 1).get(z))) return true;
-        }
-        if(chunkMap.containsKey(x - 1))
-        {
-            return guildName.equals(chunkMap.get(x - 1).get(z));
-        }
-        return false;
+        return territory.contains(ChunkMap.pack(x, z + 1))
+                || territory.contains(ChunkMap.pack(x, z - 1))
+                || territory.contains(ChunkMap.pack(x + 1, z))
+                || territory.contains(ChunkMap.pack(x - 1, z));
     }
 
     /**
      * Sets the owner of a chunk
+     * @param dimension int dimension id
      * @param chunkPos ChunkPos of the chunk
-     * @param guildName String name of the guild
+     * @param guildId int id of the guild
      */
-    public static void setChunkOwner(ChunkPos chunkPos, String guildName)
+    public static void setChunkOwner(int dimension, ChunkPos chunkPos, int guildId)
     {
-        int x = chunkPos.x;
-        int z = chunkPos.z;
-        if(chunkMap.containsKey(x))
-        {
-            if(chunkMap.containsKey(z))
-            {
-                chunkMap.get(x).replace(z, guildName);
-            }
-            else
-            {
-                chunkMap.get(x).put(z, guildName);
-            }
-        }
-        else
-        {
-            HashMap<Integer, String> temp = new HashMap<>();
-            temp.put(z, guildName);
-            chunkMap.put(x, temp);
-        }
+        getOrLoadShard(dimension).claim(ChunkMap.pack(chunkPos.x, chunkPos.z), guildId);
+        ProtectionService.claimsChanged();
     }
 
     /**
      * Removes a chunk from a guild's territory
-     * Removes the chunk from the chunk list
+     * Refuses to remove the chunk if doing so would split the territory
+     * @param dimension int dimension id
      * @param chunkPos ChunkPos of the chunk
+     * @return true if the chunk was removed
+     * @see TerritoryConnectivity
      */
-    public static boolean removeChunkOwner(ChunkPos chunkPos)
+    public static boolean removeChunkOwner(int dimension, ChunkPos chunkPos)
     {
-        int x = chunkPos.x;
-        int z = chunkPos.z;
-
-        if(canRemoveChunk(x, z))
-        {
-            chunkMap.get(x).remove(z);
-            return true;
-        }
-        return false;
+        ChunkShard shard = shards.get(dimension);
+        if(shard == null || !shard.abandon(ChunkMap.pack(chunkPos.x, chunkPos.z))) return false;
+        ProtectionService.claimsChanged();
+        return true;
     }
 
     /**
-     * Returns whether or not the chunk can be abandoned or not
-     * Uses chunk adjacency check algorithm
-     * @param x X coordinate for the chunk
-     * @param z Z coordinate for the chunk
-     * @return if the chunk can be abandoned
+     * Remove all of a guild's claimed chunks in every dimension
+     * Dimensions that are not loaded are loaded from file, cleaned and saved straight away
+     * @param guildId int id of the guild
      */
-    private static boolean canRemoveChunk(int x, int z)
+    static void removeAllClaimed(int guildId)
     {
-        HashMap<Integer, String> subMap = chunkMap.get(x);
-        String owner = subMap.get(z);
-        if(owner == null) return false;
+        for(Map.Entry<Integer, ChunkShard> entry : shards.entrySet())
+        {
+            entry.getValue().removeAll(guildId);
+        }
+        ProtectionService.claimsChanged();
 
-        boolean e = owner.equals(chunkMap.get(x + 1).get(z));
-        boolean w = owner.equals(chunkMap.get(x - 1).get(z));
+        for(int dimension : ChunkShard.getSavedDimensions())
+        {
+            if(shards.containsKey(dimension)) continue;
 
-        if(owner.equals(subMap.get(z + 1))) {if(owner.equals(subMap.get(z - 1))) if(w) return !e;}
-        else if(w) return !e;
-        return true;
+            ChunkShard shard = new ChunkShard(dimension);
+            shard.load();
+            shard.removeAll(guildId);
+            shard.save();
+        }
     }
 
     /**
-     * Remove all of a guild's claimed chunks
-     * @param guildName String name of the guild
+     * Saves the chunk data of every loaded dimension that has changed
      */
-    static void removeAllClaimed(String guildName)
+    public static void save()
     {
-        for(Map.Entry<Integer, HashMap<Integer, String>> entry : chunkMap.entrySet())
-        {
-            for(Map.Entry<Integer, String> subEntry : entry.getValue().entrySet())
-            {
-                if(subEntry.getValue().equals(guildName)) chunkMap.get(entry.getKey()).remove(subEntry.getKey());
-            }
-        }
+        for(ChunkShard shard : shards.values()) shard.save();
     }
 
     /**
-     * Saves the chunk data to file
+     * Returns the shard of a dimension
+     * Loads it from file, or creates an empty one, if it is not loaded
+     * @param dimension int dimension id
+     * @return ChunkShard of the dimension
      */
-    public static void save()
+    private static ChunkShard getOrLoadShard(int dimension)
     {
-        FileUtility.saveToFile(fileName, chunkMap);
+        ChunkShard shard = shards.get(dimension);
+        if(shard == null)
+        {
+            shard = new ChunkShard(dimension);
+            if(ChunkShard.hasFile(dimension)) shard.load();
+            shards.put(dimension, shard);
+        }
+        return shard;
     }
 }
@@ -0,0 +1,283 @@
+package parallaxscience.guilds.guild;
+
+import java.util.Arrays;
+
+/**
+ * Open-addressing hash table that maps packed chunk coordinates to owner ids
+ * Keys are stored in a primitive long array and values in a primitive int array,
+ * so lookups never box or allocate
+ * Uses linear probing with backward-shift deletion, so no tombstones are needed
+ * @author Tristan Jay
+ */
+public final class ChunkMap
+{
+    /**
+     * Owner id returned for chunks that are not in the map
+     * Also marks an empty slot in the value array, so owner ids must never be 0
+     */
+    public static final int NONE = 0;
+
+    /**
+     * Initial capacity of the table, must be a power of two
+     */
+    private static final int INITIAL_CAPACITY = 64;
+
+    /**
+     * Array of packed chunk coordinates
+     */
+    private long[] keys;
+
+    /**
+     * Array of owner ids, parallel to the key array
+     * A value of NONE marks an empty slot
+     */
+    private int[] values;
+
+    /**
+     * Number of chunks currently in the map
+     */
+    private int size;
+
+    /**
+     * Bit mask used to wrap probe indices, always capacity - 1
+     */
+    private int mask;
+
+    /**
+     * Size at which the table is grown
+     * Keeps the load factor at or below 0.75
+     */
+    private int threshold;
+
+    /**
+     * Functional interface used to iterate over the entries of the map
+     */
+    public interface EntryConsumer
+    {
+        /**
+         * Called once for every entry in the map
+         * @param key packed chunk coordinates
+         * @param owner owner id of the chunk
+         */
+        void accept(long key, int owner);
+    }
+
+    /**
+     * Constructor for the ChunkMap class
+     * Creates an empty map
+     */
+    public ChunkMap()
+    {
+        allocate(INITIAL_CAPACITY);
+    }
+
+    /**
+     * Constructor for the ChunkMap class
+     * Creates a copy of another map, which is not affected by later changes to the original
+     * @param other ChunkMap to copy
+     */
+    public ChunkMap(ChunkMap other)
+    {
+        keys = other.keys.clone();
+        values = other.values.clone();
+        size = other.size;
+        mask = other.mask;
+        threshold = other.threshold;
+    }
+
+    /**
+     * Packs chunk coordinates into a single long
+     * The x coordinate is stored in the high 32 bits and the z coordinate in the low 32 bits
+     * @param x X coordinate for the chunk
+     * @param z Z coordinate for the chunk
+     * @return packed chunk coordinates
+     */
+    public static long pack(int x, int z)
+    {
+        return ((long) x << 32) | (z & 0xFFFFFFFFL);
+    }
+
+    /**
+     * Returns the x coordinate of packed chunk coordinates
+     * @param key packed chunk coordinates
+     * @return X coordinate for the chunk
+     */
+    public static int unpackX(long key)
+    {
+        return (int) (key >> 32);
+    }
+
+    /**
+     * Returns the z coordinate of packed chunk coordinates
+     * @param key packed chunk coordinates
+     * @return Z coordinate for the chunk
+     */
+    public static int unpackZ(long key)
+    {
+        return (int) key;
+    }
+
+    /**
+     * Returns the owner id of a chunk
+     * @param key packed chunk coordinates
+     * @return owner id, or NONE if the chunk is not in the map
+     */
+    public int get(long key)
+    {
+        int index = hash(key) & mask;
+        int value;
+        while((value = values[index]) != NONE)
+        {
+            if(keys[index] == key) return value;
+            index = (index + 1) & mask;
+        }
+        return NONE;
+    }
+
+    /**
+     * Sets the owner id of a chunk
+     * @param key packed chunk coordinates
+     * @param owner owner id, must not be NONE
+     * @return the previous owner id, or NONE if the chunk was not in the map
+     */
+    public int put(long key, int owner)
+    {
+        if(owner == NONE) throw new IllegalArgumentException("Owner id cannot be NONE");
+        int index = hash(key) & mask;
+        int value;
+        while((value = values[index]) != NONE)
+        {
+            if(keys[index] == key)
+            {
+                values[index] = owner;
+                return value;
+            }
+            index = (index + 1) & mask;
+        }
+        keys[index] = key;
+        values[index] = owner;
+        if(++size > threshold) rehash(values.length << 1);
+        return NONE;
+    }
+
+    /**
+     * Removes a chunk from the map
+     * Shifts the following entries of the probe chain back so lookups stay correct
+     * @param key packed chunk coordinates
+     * @return the removed owner id, or NONE if the chunk was not in the map
+     */
+    public int remove(long key)
+    {
+        int index = hash(key) & mask;
+        int value;
+        while((value = values[index]) != NONE)
+        {
+            if(keys[index] == key)
+            {
+                shiftBack(index);
+                size--;
+                return value;
+            }
+            index = (index + 1) & mask;
+        }
+        return NONE;
+    }
+
+    /**
+     * Returns the number of chunks in the map
+     * @return int of chunk count
+     */
+    public int size()
+    {
+        return size;
+    }
+
+    /**
+     * Removes every chunk from the map
+     */
+    public void clear()
+    {
+        Arrays.fill(values, NONE);
+        size = 0;
+    }
+
+    /**
+     * Calls the consumer for every entry in the map
+     * The map must not be modified while it is being iterated
+     * @param consumer EntryConsumer to call
+     */
+    public void forEach(EntryConsumer consumer)
+    {
+        for(int i = 0; i < values.length; i++)
+        {
+            if(values[i] != NONE) consumer.accept(keys[i], values[i]);
+        }
+    }
+
+    /**
+     * Closes the gap left by a removed entry
+     * Moves every following entry of the probe chain that would no longer be reachable
+     * @param gap index of the removed entry
+     */
+    private void shiftBack(int gap)
+    {
+        int index = gap;
+        while(true)
+        {
+            index = (index + 1) & mask;
+            if(values[index] == NONE) break;
+            int home = hash(keys[index]) & mask;
+            //Only move the entry if its home slot is not between the gap and its current slot
+            if(((index - home) & mask) >= ((index - gap) & mask))
+            {
+                keys[gap] = keys[index];
+                values[gap] = values[index];
+                gap = index;
+            }
+        }
+        values[gap] = NONE;
+    }
+
+    /**
+     * Allocates empty key and value arrays
+     * @param capacity new capacity, must be a power of two
+     */
+    private void allocate(int capacity)
+    {
+        keys = new long[capacity];
+        values = new int[capacity];
+        mask = capacity - 1;
+        threshold = (capacity >> 1) + (capacity >> 2);
+    }
+
+    /**
+     * Grows the table and re-inserts every entry
+     * @param capacity new capacity, must be a power of two
+     */
+    private void rehash(int capacity)
+    {
+        long[] oldKeys = keys;
+        int[] oldValues = values;
+        allocate(capacity);
+        for(int i = 0; i < oldValues.length; i++)
+        {
+            if(oldValues[i] == NONE) continue;
+            int index = hash(oldKeys[i]) & mask;
+            while(values[index] != NONE) index = (index + 1) & mask;
+            keys[index] = oldKeys[i];
+            values[index] = oldValues[i];
+        }
+    }
+
+    /**
+     * Mixes the bits of packed chunk coordinates
+     * Neighbouring chunks would otherwise land in neighbouring slots and form long probe chains
+     * @param key packed chunk coordinates
+     * @return hash of the key
+     */
+    private static int hash(long key)
+    {
+        key *= 0x9E3779B97F4A7C15L;
+        return (int) (key ^ (key >>> 32));
+    }
+}
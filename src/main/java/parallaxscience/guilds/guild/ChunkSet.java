@@ -0,0 +1,241 @@
+package parallaxscience.guilds.guild;
+
+import java.util.Arrays;
+import java.util.function.LongConsumer;
+
+/**
+ * Open-addressing hash set of packed chunk coordinates
+ * Used to hold the territory of a single guild
+ * Uses linear probing with backward-shift deletion, like the ChunkMap
+ * @see ChunkMap
+ * @author Tristan Jay
+ */
+public final class ChunkSet
+{
+    /**
+     * Key used to mark an empty slot
+     * The chunk that packs to this key is tracked separately by hasEmptyKey
+     */
+    private static final long EMPTY = Long.MIN_VALUE;
+
+    /**
+     * Initial capacity of the table, must be a power of two
+     */
+    private static final int INITIAL_CAPACITY = 16;
+
+    /**
+     * Array of packed chunk coordinates
+     */
+    private long[] keys;
+
+    /**
+     * Whether or not the chunk that packs to EMPTY is in the set
+     */
+    private boolean hasEmptyKey;
+
+    /**
+     * Number of chunks currently in the set
+     */
+    private int size;
+
+    /**
+     * Bit mask used to wrap probe indices, always capacity - 1
+     */
+    private int mask;
+
+    /**
+     * Size at which the table is grown
+     */
+    private int threshold;
+
+    /**
+     * Constructor for the ChunkSet class
+     * Creates an empty set
+     */
+    public ChunkSet()
+    {
+        allocate(INITIAL_CAPACITY);
+    }
+
+    /**
+     * Returns whether or not a chunk is in the set
+     * @param key packed chunk coordinates
+     * @return true if the chunk is in the set
+     */
+    public boolean contains(long key)
+    {
+        if(key == EMPTY) return hasEmptyKey;
+        int index = hash(key) & mask;
+        long current;
+        while((current = keys[index]) != EMPTY)
+        {
+            if(current == key) return true;
+            index = (index + 1) & mask;
+        }
+        return false;
+    }
+
+    /**
+     * Adds a chunk to the set
+     * @param key packed chunk coordinates
+     * @return true if the chunk was not already in the set
+     */
+    public boolean add(long key)
+    {
+        if(key == EMPTY)
+        {
+            if(hasEmptyKey) return false;
+            hasEmptyKey = true;
+            size++;
+            return true;
+        }
+        int index = hash(key) & mask;
+        long current;
+        while((current = keys[index]) != EMPTY)
+        {
+            if(current == key) return false;
+            index = (index + 1) & mask;
+        }
+        keys[index] = key;
+        if(++size > threshold) rehash(keys.length << 1);
+        return true;
+    }
+
+    /**
+     * Removes a chunk from the set
+     * @param key packed chunk coordinates
+     * @return true if the chunk was in the set
+     */
+    public boolean remove(long key)
+    {
+        if(key == EMPTY)
+        {
+            if(!hasEmptyKey) return false;
+            hasEmptyKey = false;
+            size--;
+            return true;
+        }
+        int index = hash(key) & mask;
+        long current;
+        while((current = keys[index]) != EMPTY)
+        {
+            if(current == key)
+            {
+                shiftBack(index);
+                size--;
+                return true;
+            }
+            index = (index + 1) & mask;
+        }
+        return false;
+    }
+
+    /**
+     * Returns the number of chunks in the set
+     * @return int of chunk count
+     */
+    public int size()
+    {
+        return size;
+    }
+
+    /**
+     * Returns whether or not the set is empty
+     * @return true if there are no chunks in the set
+     */
+    public boolean isEmpty()
+    {
+        return size == 0;
+    }
+
+    /**
+     * Calls the consumer for every chunk in the set
+     * The set must not be modified while it is being iterated
+     * @param consumer LongConsumer to call with the packed chunk coordinates
+     */
+    public void forEach(LongConsumer consumer)
+    {
+        if(hasEmptyKey) consumer.accept(EMPTY);
+        for(long key : keys)
+        {
+            if(key != EMPTY) consumer.accept(key);
+        }
+    }
+
+    /**
+     * Returns all of the chunks in the set
+     * @return array of packed chunk coordinates
+     */
+    public long[] toArray()
+    {
+        long[] array = new long[size];
+        int i = 0;
+        if(hasEmptyKey) array[i++] = EMPTY;
+        for(long key : keys)
+        {
+            if(key != EMPTY) array[i++] = key;
+        }
+        return array;
+    }
+
+    /**
+     * Closes the gap left by a removed entry
+     * @param gap index of the removed entry
+     */
+    private void shiftBack(int gap)
+    {
+        int index = gap;
+        while(true)
+        {
+            index = (index + 1) & mask;
+            if(keys[index] == EMPTY) break;
+            int home = hash(keys[index]) & mask;
+            if(((index - home) & mask) >= ((index - gap) & mask))
+            {
+                keys[gap] = keys[index];
+                gap = index;
+            }
+        }
+        keys[gap] = EMPTY;
+    }
+
+    /**
+     * Allocates an empty key array
+     * @param capacity new capacity, must be a power of two
+     */
+    private void allocate(int capacity)
+    {
+        keys = new long[capacity];
+        Arrays.fill(keys, EMPTY);
+        mask = capacity - 1;
+        threshold = (capacity >> 1) + (capacity >> 2);
+    }
+
+    /**
+     * Grows the table and re-inserts every key
+     * @param capacity new capacity, must be a power of two
+     */
+    private void rehash(int capacity)
+    {
+        long[] oldKeys = keys;
+        allocate(capacity);
+        for(long key : oldKeys)
+        {
+            if(key == EMPTY) continue;
+            int index = hash(key) & mask;
+            while(keys[index] != EMPTY) index = (index + 1) & mask;
+            keys[index] = key;
+        }
+    }
+
+    /**
+     * Mixes the bits of packed chunk coordinates
+     * @param key packed chunk coordinates
+     * @return hash of the key
+     */
+    private static int hash(long key)
+    {
+        key *= 0x9E3779B97F4A7C15L;
+        return (int) (key ^ (key >>> 32));
+    }
+}
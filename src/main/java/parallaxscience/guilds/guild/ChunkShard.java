@@ -0,0 +1,696 @@
+package parallaxscience.guilds.guild;
+
+import parallaxscience.guilds.Guilds;
+import parallaxscience.guilds.persistence.PersistenceService;
+import parallaxscience.guilds.persistence.SaveFormat;
+import parallaxscience.guilds.utility.FileUtility;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Map;
+
+/**
+ * Class that holds the claimed chunks of a single dimension
+ * Each dimension is loaded, saved and unloaded on its own
+ * Claims are read from a memory-mapped claim index, changes made since the index was written are held in an overlay
+ * The overlay is saved in region files of 32x32 chunks, like Anvil, and only the regions that changed are rewritten
+ * Once the overlay grows large enough, the next save compacts it into a new index
+ * @see ClaimIndex
+ * @see ChunkCache
+ * @author Tristan Jay
+ */
+final class ChunkShard
+{
+    /**
+     * Name of the overworld save file used before region files
+     * Other dimensions add a suffix with their dimension id
+     */
+    private static final String filePrefix = "ChunkCache";
+
+    /**
+     * Directory that holds the region files of every dimension
+     */
+    private static final String claimDirectory = FileUtility.guildDirectory + "/claims";
+
+    /**
+     * Marks the start of a save file that holds a whole dimension
+     * Only read, to migrate it to region files
+     * @see SaveFormat
+     */
+    private static final int DIMENSION_MAGIC = 0x474C4443;
+
+    /**
+     * Marks the start of a region file
+     * @see SaveFormat
+     */
+    private static final int REGION_MAGIC = 0x474C4452;
+
+    /**
+     * Number of bits of a chunk coordinate used inside a region
+     */
+    private static final int REGION_BITS = 5;
+
+    /**
+     * Bit mask of a chunk coordinate inside a region
+     */
+    private static final int REGION_MASK = (1 << REGION_BITS) - 1;
+
+    /**
+     * Number of chunks in a region
+     */
+    private static final int REGION_CHUNKS = 1 << (REGION_BITS * 2);
+
+    /**
+     * Number of changed chunks the overlay can hold before it is compacted into a new index
+     */
+    private static final int COMPACT_THRESHOLD = 4096;
+
+    /**
+     * Dimension id of the shard
+     */
+    private final int dimension;
+
+    /**
+     * The claim index, mapped from file or written by the last compaction
+     * @see ClaimIndex
+     */
+    private ClaimIndex index = ClaimIndex.empty();
+
+    /**
+     * Generation of the claim index file, or -1 if there is none
+     */
+    private int generation = -1;
+
+    /**
+     * The chunks whose owner changed since the index was written and their new owner
+     * Abandoned chunks that are claimed in the index are marked with ClaimIndex.REMOVED
+     * @see ChunkMap
+     * @see GuildRegistry
+     */
+    private ChunkMap overlay = new ChunkMap();
+
+    /**
+     * The claimed chunks of the guilds whose territory has been needed since the shard was loaded
+     * Key is the id of the guild
+     * Built from the index and the overlay the first time it is needed, then kept in sync with every claim
+     * @see ChunkSet
+     */
+    private final HashMap<Integer, ChunkSet> territories = new HashMap<>();
+
+    /**
+     * The regions that have changed since they were last saved
+     * Holds packed region coordinates
+     */
+    private ChunkSet dirtyRegions = new ChunkSet();
+
+    /**
+     * The regions that have a region file, which the next compaction deletes
+     * Holds packed region coordinates
+     */
+    private ChunkSet savedRegions = new ChunkSet();
+
+    /**
+     * Whether or not the saved claims could not be read when the shard was loaded
+     * The shard then never writes to its files, so the claims on disk are not replaced by an incomplete copy
+     */
+    private boolean readOnly = false;
+
+    /**
+     * Constructor for the ChunkShard class
+     * Creates an empty shard
+     * @param dimension int dimension id
+     */
+    ChunkShard(int dimension)
+    {
+        this.dimension = dimension;
+    }
+
+    /**
+     * Returns the save file of a dimension used before region files
+     * The overworld keeps the original file name
+     * @param dimension int dimension id
+     * @return String path to the save file
+     */
+    private static String getFileName(int dimension)
+    {
+        if(dimension == 0) return FileUtility.guildDirectory + "/" + filePrefix + ".dat";
+        return FileUtility.guildDirectory + "/" + filePrefix + "_DIM" + dimension + ".dat";
+    }
+
+    /**
+     * Returns the directory that holds the region files of a dimension
+     * @param dimension int dimension id
+     * @return String path to the directory
+     */
+    private static String getRegionDirectory(int dimension)
+    {
+        return claimDirectory + "/DIM" + dimension;
+    }
+
+    /**
+     * Returns the region file of a region
+     * @param dimension int dimension id
+     * @param region packed region coordinates
+     * @return String path to the region file
+     */
+    private static String getRegionFileName(int dimension, long region)
+    {
+        return getRegionDirectory(dimension) + "/r." + ChunkMap.unpackX(region) + "." + ChunkMap.unpackZ(region) + ".dat";
+    }
+
+    /**
+     * Returns the claim index file of a dimension
+     * Every compaction writes a new generation, so a mapped index file is never replaced while it is in use
+     * @param dimension int dimension id
+     * @param generation int generation of the index
+     * @return String path to the index file
+     */
+    private static String getIndexFileName(int dimension, int generation)
+    {
+        return getRegionDirectory(dimension) + "/index." + generation + ".dat";
+    }
+
+    /**
+     * Returns the generation of a claim index file
+     * @param fileName String name of the file, without its directory
+     * @return int generation, or -1 if the file is not an index file
+     */
+    private static int getIndexGeneration(String fileName)
+    {
+        if(!fileName.startsWith("index.") || !fileName.endsWith(".dat")) return -1;
+        try
+        {
+            return Integer.parseInt(fileName.substring(6, fileName.length() - 4));
+        }
+        catch(NumberFormatException e)
+        {
+            return -1;
+        }
+    }
+
+    /**
+     * Returns every dimension that has claims saved to file
+     * @return Integer HashSet of dimension ids
+     */
+    static HashSet<Integer> getSavedDimensions()
+    {
+        HashSet<Integer> dimensions = new HashSet<>();
+        String[] files = new File(FileUtility.guildDirectory).list();
+        if(files != null)
+        {
+            for(String file : files)
+            {
+                if(file.equals(filePrefix + ".dat")) dimensions.add(0);
+                else if(file.startsWith(filePrefix + "_DIM") && file.endsWith(".dat")) addDimension(dimensions, file.substring(filePrefix.length() + 4, file.length() - 4));
+            }
+        }
+        String[] directories = new File(claimDirectory).list();
+        if(directories != null)
+        {
+            for(String directory : directories)
+            {
+                if(directory.startsWith("DIM")) addDimension(dimensions, directory.substring(3));
+            }
+        }
+        return dimensions;
+    }
+
+    /**
+     * Adds a dimension id to a set, if it is a valid number
+     * @param dimensions Integer HashSet of dimension ids
+     * @param dimension String dimension id taken from a file name
+     */
+    private static void addDimension(HashSet<Integer> dimensions, String dimension)
+    {
+        try
+        {
+            dimensions.add(Integer.parseInt(dimension));
+        }
+        catch(NumberFormatException ignored)
+        {
+        }
+    }
+
+    /**
+     * Returns whether or not a dimension has claims saved to file
+     * @param dimension int dimension id
+     * @return true if a save file or region directory exists
+     */
+    static boolean hasFile(int dimension)
+    {
+        return new File(getFileName(dimension)).isFile() || new File(getRegionDirectory(dimension)).isDirectory();
+    }
+
+    /**
+     * Returns the packed coordinates of the region a chunk is in
+     * @param key packed chunk coordinates
+     * @return packed region coordinates
+     */
+    private static long getRegion(long key)
+    {
+        return ChunkMap.pack(ChunkMap.unpackX(key) >> REGION_BITS, ChunkMap.unpackZ(key) >> REGION_BITS);
+    }
+
+    /**
+     * Returns the packed coordinates of a chunk in a region
+     * @param region packed region coordinates
+     * @param index int index of the chunk inside the region
+     * @return packed chunk coordinates
+     */
+    private static long getRegionChunk(long region, int index)
+    {
+        return ChunkMap.pack((ChunkMap.unpackX(region) << REGION_BITS) | (index >> REGION_BITS), (ChunkMap.unpackZ(region) << REGION_BITS) | (index & REGION_MASK));
+    }
+
+    /**
+     * Attempts to load the chunk data of the shard
+     * Maps the newest claim index, then applies the region files saved since it was written
+     * A save file from before region files is read instead and compacted into an index
+     * Only the region files depend on the number of claims, and they are bounded by the compaction threshold
+     * Changes to this shard's files that have not been written yet are written first, other files are left alone
+     * If the saved claims cannot be read, the shard keeps what it could read but never writes its files
+     */
+    void load()
+    {
+        String directory = getRegionDirectory(dimension);
+        String fileName = getFileName(dimension);
+        PersistenceService.flush(directory + "/");
+        PersistenceService.flush(fileName);
+
+        String[] files = new File(directory).list();
+        if(files != null) loadIndex(files);
+
+        boolean migrate = false;
+        if(new File(fileName).isFile())
+        {
+            try
+            {
+                //An index is only written after the old file was read, so the old file can be skipped
+                if(generation < 0 && SaveFormat.isLegacy(fileName)) loadLegacy(fileName);
+                else if(generation < 0) loadDimension(fileName);
+                migrate = true;
+            }
+            catch(Exception e)
+            {
+                Guilds.logger.info("ERROR: " + e.getClass().getSimpleName() + " while trying to read " + fileName + ": " + e.getMessage());
+                overlay = new ChunkMap();
+                readOnly = true;
+            }
+        }
+
+        if(files != null)
+        {
+            for(String file : files)
+            {
+                if(file.startsWith("r.") && file.endsWith(".dat")) loadRegion(directory + "/" + file);
+            }
+        }
+
+        dirtyRegions = new ChunkSet();
+        if(readOnly)
+        {
+            Guilds.logger.info("ERROR: The claims of dimension " + dimension + " could not be read, changes to them will not be saved");
+            return;
+        }
+        if(migrate || overlay.size() > COMPACT_THRESHOLD) compact();
+        if(migrate) PersistenceService.markDirty(fileName, () -> null);
+    }
+
+    /**
+     * Maps the newest claim index file of the shard that can be read
+     * Falls back to the previous generation if the newest one is damaged,
+     * and marks the shard read-only if none of them can be read
+     * Older index files are only deleted once a newer one has been mapped
+     * @param files String array of the names of the files in the region directory
+     */
+    private void loadIndex(String[] files)
+    {
+        int[] generations = new int[files.length];
+        int count = 0;
+        for(String file : files)
+        {
+            int fileGeneration = getIndexGeneration(file);
+            if(fileGeneration >= 0) generations[count++] = fileGeneration;
+        }
+        if(count == 0) return;
+        Arrays.sort(generations, 0, count);
+
+        for(int i = count - 1; i >= 0; i--)
+        {
+            String fileName = getIndexFileName(dimension, generations[i]);
+            try
+            {
+                index = ClaimIndex.map(fileName);
+                generation = generations[i];
+                for(int j = 0; j < i; j++) PersistenceService.markDirty(getIndexFileName(dimension, generations[j]), () -> null);
+                return;
+            }
+            catch(IOException e)
+            {
+                Guilds.logger.info("ERROR: IOException while trying to read " + fileName);
+            }
+        }
+        readOnly = true;
+    }
+
+    /**
+     * Applies a region file to the overlay
+     * A region file holds every claim of its region, so chunks it does not list are unclaimed
+     * A region file that cannot be read is skipped, so it does not affect the rest of the dimension
+     * @param fileName String name of the region file
+     */
+    private void loadRegion(String fileName)
+    {
+        try(DataInputStream input = SaveFormat.open(fileName, REGION_MAGIC))
+        {
+            long region = input.readLong();
+            int[] owners = new int[REGION_CHUNKS];
+            int count = input.readUnsignedShort();
+            for(int i = 0; i < count; i++)
+            {
+                int chunk = input.readUnsignedShort();
+                int owner = input.readInt();
+                if(!GuildRegistry.isDisbanded(owner)) owners[chunk] = owner;
+            }
+            for(int i = 0; i < REGION_CHUNKS; i++) setOwner(getRegionChunk(region, i), owners[i]);
+            savedRegions.add(region);
+        }
+        catch(IOException e)
+        {
+            Guilds.logger.info("ERROR: IOException while trying to read " + fileName);
+        }
+    }
+
+    /**
+     * Reads the chunk data of the shard from a save file that holds the whole dimension, one guild at a time
+     * @param fileName String name of the save file
+     */
+    private void loadDimension(String fileName) throws IOException
+    {
+        try(DataInputStream input = SaveFormat.open(fileName, DIMENSION_MAGIC))
+        {
+            int guildCount = input.readInt();
+            for(int i = 0; i < guildCount; i++)
+            {
+                int owner = input.readInt();
+                int chunkCount = input.readInt();
+                boolean kept = !GuildRegistry.isDisbanded(owner);
+                for(int j = 0; j < chunkCount; j++)
+                {
+                    long key = input.readLong();
+                    if(kept) claim(key, owner);
+                }
+            }
+        }
+    }
+
+    /**
+     * Reads the chunk data of the shard from a file written with Java serialization
+     * @param fileName String name of the save file
+     */
+    @SuppressWarnings("unchecked")
+    private void loadLegacy(String fileName) throws IOException, ClassNotFoundException
+    {
+        HashMap<?, ?> data = (HashMap<?, ?>) FileUtility.readFromFile(fileName);
+        for(Map.Entry<?, ?> entry : data.entrySet())
+        {
+            if(entry.getValue() instanceof long[])
+            {
+                int owner = entry.getKey() instanceof String ? GuildRegistry.getGuildId((String) entry.getKey()) : (Integer) entry.getKey();
+                if(GuildRegistry.isDisbanded(owner)) continue;
+                for(long key : (long[]) entry.getValue()) claim(key, owner);
+            }
+            else
+            {
+                //Legacy format: HashMap<Integer, HashMap<Integer, String>>
+                int x = (Integer) entry.getKey();
+                for(Map.Entry<Integer, String> subEntry : ((HashMap<Integer, String>) entry.getValue()).entrySet())
+                {
+                    int owner = GuildRegistry.getGuildId(subEntry.getValue());
+                    if(owner != GuildRegistry.NONE) claim(ChunkMap.pack(x, subEntry.getKey()), owner);
+                }
+            }
+        }
+    }
+
+    /**
+     * Marks the region files of the shard that have changed to be saved
+     * Compacts the overlay into a new index instead once it holds enough changes
+     * Nothing is saved if the shard could not be read
+     * The files are written in the background at the end of the tick
+     * @see PersistenceService
+     */
+    void save()
+    {
+        if(readOnly) return;
+        if(overlay.size() > COMPACT_THRESHOLD)
+        {
+            compact();
+            return;
+        }
+        if(dirtyRegions.isEmpty()) return;
+        dirtyRegions.forEach(this::saveRegion);
+        dirtyRegions = new ChunkSet();
+    }
+
+    /**
+     * Writes the index with the overlay applied as a new generation, then deletes the older index and every region file
+     * The deletions are queued after the new index, so a crash never leaves the claims without a complete copy
+     * Called when the overlay grows too large, and when a save file from before region files is migrated
+     * @see ClaimIndex#compact(ClaimIndex, ChunkMap)
+     */
+    private void compact()
+    {
+        dirtyRegions = new ChunkSet();
+        if(overlay.size() == 0 && savedRegions.isEmpty()) return;
+
+        index = ClaimIndex.compact(index, overlay);
+        overlay = new ChunkMap();
+        PersistenceService.markDirty(getIndexFileName(dimension, generation + 1), index::toByteArray);
+        if(generation >= 0) PersistenceService.markDirty(getIndexFileName(dimension, generation), () -> null);
+        generation++;
+        savedRegions.forEach(this::deleteRegion);
+        savedRegions = new ChunkSet();
+    }
+
+    /**
+     * Marks a region file to be saved
+     * @param region packed region coordinates
+     */
+    private void saveRegion(long region)
+    {
+        savedRegions.add(region);
+        PersistenceService.markDirty(getRegionFileName(dimension, region), () -> serializeRegion(region));
+    }
+
+    /**
+     * Marks a region file to be deleted
+     * @param region packed region coordinates
+     */
+    private void deleteRegion(long region)
+    {
+        PersistenceService.markDirty(getRegionFileName(dimension, region), () -> null);
+    }
+
+    /**
+     * Writes the claims of a region in the binary format
+     * An empty region still needs a file while the index has claims there, so the claims stay removed
+     * @param region packed region coordinates
+     * @return byte array of the region file, or null if the file should be deleted
+     */
+    private byte[] serializeRegion(long region) throws IOException
+    {
+        int[] owners = new int[REGION_CHUNKS];
+        int count = 0;
+        for(int i = 0; i < REGION_CHUNKS; i++)
+        {
+            owners[i] = getOwner(getRegionChunk(region, i));
+            if(owners[i] != ChunkMap.NONE) count++;
+        }
+        long first = getRegionChunk(region, 0);
+        if(count == 0 && !index.hasRegion(ChunkMap.unpackX(first), ChunkMap.unpackZ(first))) return null;
+        int claims = count;
+        return SaveFormat.write(REGION_MAGIC, output -> writeRegion(output, region, owners, claims));
+    }
+
+    /**
+     * Writes the claims of a region as the index of each chunk inside the region and its owner
+     * @param output DataOutputStream to write to
+     * @param region packed region coordinates
+     * @param owners int array of the owner of every chunk in the region
+     * @param count number of claimed chunks in the region
+     */
+    private static void writeRegion(DataOutputStream output, long region, int[] owners, int count) throws IOException
+    {
+        output.writeLong(region);
+        output.writeShort(count);
+        for(int i = 0; i < owners.length; i++)
+        {
+            if(owners[i] == ChunkMap.NONE) continue;
+            output.writeShort(i);
+            output.writeInt(owners[i]);
+        }
+    }
+
+    /**
+     * Marks the region of a chunk as changed
+     * @param key packed chunk coordinates
+     */
+    private void markDirty(long key)
+    {
+        dirtyRegions.add(getRegion(key));
+    }
+
+    /**
+     * Returns the id of the owner of a chunk
+     * @param key packed chunk coordinates
+     * @return int id of the owning guild, or GuildRegistry.NONE if unclaimed
+     */
+    int getOwner(long key)
+    {
+        return index.getOwner(overlay, ChunkMap.unpackX(key), ChunkMap.unpackZ(key));
+    }
+
+    /**
+     * Returns whether or not a chunk is claimed by any guild
+     * @param x X coordinate for the chunk
+     * @param z Z coordinate for the chunk
+     * @return true if the chunk is claimed
+     */
+    boolean isClaimed(int x, int z)
+    {
+        return index.isClaimed(overlay, x, z);
+    }
+
+    /**
+     * Returns a read-only view of the claimed chunks of the shard
+     * Only the overlay is copied, the index is never changed
+     * @return ClaimSnapshot that is not affected by later claims
+     */
+    ClaimSnapshot snapshot()
+    {
+        return new ClaimSnapshot(index, new ChunkMap(overlay));
+    }
+
+    /**
+     * Returns the claimed chunks of a guild in this dimension
+     * Built from the index and the overlay the first time it is needed
+     * @param guildId int id of the guild
+     * @return ChunkSet of the guild's territory, or null if it has none here
+     */
+    ChunkSet getTerritory(int guildId)
+    {
+        ChunkSet territory = territories.get(guildId);
+        if(territory == null)
+        {
+            territory = new ChunkSet();
+            index.forEachClaim(guildId, territory::add);
+            ChunkSet built = territory;
+            overlay.forEach((key, owner) -> applyOverlay(built, guildId, key, owner));
+            territories.put(guildId, territory);
+        }
+        return territory.isEmpty() ? null : territory;
+    }
+
+    /**
+     * Applies one overlay entry to a territory that is being built from the index
+     * @param territory ChunkSet of the guild's territory
+     * @param guildId int id of the guild
+     * @param key packed chunk coordinates
+     * @param owner owner id of the chunk in the overlay, or ClaimIndex.REMOVED
+     */
+    private static void applyOverlay(ChunkSet territory, int guildId, long key, int owner)
+    {
+        if(owner == guildId) territory.add(key);
+        else territory.remove(key);
+    }
+
+    /**
+     * Sets the owner of a chunk in both the overlay and the territory list
+     * @param key packed chunk coordinates
+     * @param guildId int id of the guild
+     */
+    void claim(long key, int guildId)
+    {
+        int previous = getOwner(key);
+        if(previous == guildId) return;
+        setOwner(key, guildId);
+        if(previous != ChunkMap.NONE) unclaim(key, previous);
+        ChunkSet territory = territories.get(guildId);
+        if(territory != null) territory.add(key);
+        markDirty(key);
+    }
+
+    /**
+     * Removes a chunk from a guild's territory
+     * Refuses to remove the chunk if doing so would split the territory
+     * @param key packed chunk coordinates
+     * @return true if the chunk was removed
+     * @see TerritoryConnectivity
+     */
+    boolean abandon(long key)
+    {
+        int owner = getOwner(key);
+        if(owner == ChunkMap.NONE) return false;
+
+        ChunkSet territory = getTerritory(owner);
+        if(territory == null || !TerritoryConnectivity.canRemove(territory, key)) return false;
+
+        release(key);
+        unclaim(key, owner);
+        return true;
+    }
+
+    /**
+     * Removes all of a guild's claimed chunks in this dimension
+     * Only touches the chunks in the guild's territory list
+     * @param guildId int id of the guild
+     */
+    void removeAll(int guildId)
+    {
+        ChunkSet territory = getTerritory(guildId);
+        territories.remove(guildId);
+        if(territory == null) return;
+        territory.forEach(this::release);
+    }
+
+    /**
+     * Records the owner of a chunk in the overlay
+     * Chunks whose owner matches the index are dropped from the overlay
+     * @param key packed chunk coordinates
+     * @param guildId int id of the new owner, or ChunkMap.NONE if unclaimed
+     */
+    private void setOwner(long key, int guildId)
+    {
+        if(index.getOwner(ChunkMap.unpackX(key), ChunkMap.unpackZ(key)) == guildId) overlay.remove(key);
+        else overlay.put(key, guildId == ChunkMap.NONE ? ClaimIndex.REMOVED : guildId);
+    }
+
+    /**
+     * Removes a chunk from the overlay
+     * Does not touch the territory list
+     * @param key packed chunk coordinates
+     */
+    private void release(long key)
+    {
+        setOwner(key, ChunkMap.NONE);
+        markDirty(key);
+    }
+
+    /**
+     * Removes a chunk from the territory list of a guild
+     * Does not touch the overlay
+     * @param key packed chunk coordinates
+     * @param guildId int id of the guild
+     */
+    private void unclaim(long key, int guildId)
+    {
+        ChunkSet territory = territories.get(guildId);
+        if(territory != null) territory.remove(key);
+        markDirty(key);
+    }
+}
@@ -0,0 +1,489 @@
+package parallaxscience.guilds.guild;
+
+import parallaxscience.guilds.persistence.SaveFormat;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
+import java.util.Arrays;
+import java.util.function.LongConsumer;
+
+/**
+ * Read-only index of the claimed chunks of a dimension, in a fixed layout that is memory-mapped from file
+ * Opening the index only reads its header, lookups read straight from the mapped file,
+ * so the cost of loading a dimension does not depend on how many chunks are claimed in it
+ * Claims are sorted by region, then by their position inside the region
+ * After the header the file holds:
+ * the sort key of every region, the first claim of every region, a 32x32 claim bitmap of every region,
+ * the packed chunk coordinates of every claim, the owner of every claim,
+ * a directory of every guild's first claim and claim count, and the packed chunk coordinates grouped by guild
+ * The owner of a claim is found through the region's bitmap, by counting the claimed chunks before it
+ * Changes made after the index was written are held in an overlay ChunkMap until the next compaction
+ * @see ChunkShard
+ * @author Tristan Jay
+ */
+final class ClaimIndex
+{
+    /**
+     * Marks the start of a claim index file
+     */
+    static final int MAGIC = 0x474C4449;
+
+    /**
+     * Owner stored in an overlay for a chunk that is claimed in the index but has since been abandoned
+     */
+    static final int REMOVED = -1;
+
+    /**
+     * Number of bits of a chunk coordinate used inside a region
+     */
+    private static final int REGION_BITS = 5;
+
+    /**
+     * Bit mask of a chunk coordinate inside a region
+     */
+    private static final int REGION_MASK = (1 << REGION_BITS) - 1;
+
+    /**
+     * Number of longs in the claim bitmap of a region
+     */
+    private static final int TILE_WORDS = (1 << (REGION_BITS * 2)) / 64;
+
+    /**
+     * Size of the header in bytes
+     * Magic number, version, three bytes of padding, then the region, claim and guild counts
+     */
+    private static final int HEADER_SIZE = 20;
+
+    /**
+     * The contents of the index, either mapped from file or held in memory
+     */
+    private final ByteBuffer buffer;
+
+    /**
+     * Number of regions with at least one claim
+     */
+    private final int regionCount;
+
+    /**
+     * Number of claims
+     */
+    private final int claimCount;
+
+    /**
+     * Number of guilds with at least one claim
+     */
+    private final int guildCount;
+
+    /**
+     * Byte offsets of each part of the index
+     */
+    private final int startOffset, tileOffset, keyOffset, ownerOffset, guildOffset, territoryOffset;
+
+    /**
+     * Constructor for the ClaimIndex class
+     * Only reads the header
+     * @param buffer ByteBuffer holding the index
+     * @throws IOException if the buffer does not hold a valid index
+     */
+    ClaimIndex(ByteBuffer buffer) throws IOException
+    {
+        this.buffer = buffer;
+        if(buffer.capacity() < HEADER_SIZE || buffer.getInt(0) != MAGIC) throw new IOException("Not a valid claim index");
+        if(buffer.get(4) > SaveFormat.VERSION) throw new IOException("Claim index was saved by a newer version");
+        regionCount = buffer.getInt(8);
+        claimCount = buffer.getInt(12);
+        guildCount = buffer.getInt(16);
+        startOffset = HEADER_SIZE + regionCount * 8;
+        tileOffset = startOffset + regionCount * 4;
+        keyOffset = tileOffset + regionCount * TILE_WORDS * 8;
+        ownerOffset = keyOffset + claimCount * 8;
+        guildOffset = ownerOffset + claimCount * 4;
+        territoryOffset = guildOffset + guildCount * 12;
+        if(buffer.capacity() < territoryOffset + claimCount * 8) throw new IOException("Claim index is truncated");
+    }
+
+    /**
+     * Returns an index without any claims
+     * @return empty ClaimIndex
+     */
+    static ClaimIndex empty()
+    {
+        return wrap(new Writer(0, 0, 0).buffer);
+    }
+
+    /**
+     * Wraps a buffer that was just written by a Writer
+     * @param buffer ByteBuffer holding the index
+     * @return ClaimIndex backed by the buffer
+     */
+    private static ClaimIndex wrap(ByteBuffer buffer)
+    {
+        try
+        {
+            return new ClaimIndex(buffer);
+        }
+        catch(IOException e)
+        {
+            throw new IllegalStateException(e);
+        }
+    }
+
+    /**
+     * Maps an index file into memory
+     * Nothing but the header is read
+     * @param fileName String name of the index file
+     * @return ClaimIndex backed by the mapped file
+     * @throws IOException if the file cannot be mapped or is not a valid index
+     */
+    static ClaimIndex map(String fileName) throws IOException
+    {
+        try(FileChannel channel = FileChannel.open(Paths.get(fileName), StandardOpenOption.READ))
+        {
+            return new ClaimIndex(channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size()));
+        }
+    }
+
+    /**
+     * Returns the contents of an index held in memory
+     * Used to write a newly compacted index to file
+     * @return byte array of the index
+     */
+    byte[] toByteArray()
+    {
+        return buffer.array();
+    }
+
+    /**
+     * Returns the owner of a chunk, as stored in the index
+     * @param x X coordinate for the chunk
+     * @param z Z coordinate for the chunk
+     * @return int id of the owning guild, or ChunkMap.NONE if unclaimed
+     */
+    int getOwner(int x, int z)
+    {
+        int region = findRegion(sortKey(x, z) >> (REGION_BITS * 2));
+        if(region < 0) return ChunkMap.NONE;
+
+        int local = ((x & REGION_MASK) << REGION_BITS) | (z & REGION_MASK);
+        int tile = tileOffset + region * TILE_WORDS * 8;
+        int word = local >>> 6;
+        long bits = buffer.getLong(tile + word * 8);
+        long bit = 1L << (local & 63);
+        if((bits & bit) == 0) return ChunkMap.NONE;
+
+        int rank = Long.bitCount(bits & (bit - 1));
+        for(int i = 0; i < word; i++) rank += Long.bitCount(buffer.getLong(tile + i * 8));
+        return buffer.getInt(ownerOffset + (buffer.getInt(startOffset + region * 4) + rank) * 4);
+    }
+
+    /**
+     * Returns whether or not a chunk is claimed, with the changes held in an overlay applied
+     * Only tests the chunk's bit in its region bitmap, the owner is never read
+     * @param overlay ChunkMap of changes made since the index was written
+     * @param x X coordinate for the chunk
+     * @param z Z coordinate for the chunk
+     * @return true if the chunk is claimed
+     */
+    boolean isClaimed(ChunkMap overlay, int x, int z)
+    {
+        int owner = overlay.get(ChunkMap.pack(x, z));
+        if(owner != ChunkMap.NONE) return owner != REMOVED;
+
+        int region = findRegion(sortKey(x, z) >> (REGION_BITS * 2));
+        if(region < 0) return false;
+        int local = ((x & REGION_MASK) << REGION_BITS) | (z & REGION_MASK);
+        long bits = buffer.getLong(tileOffset + (region * TILE_WORDS + (local >>> 6)) * 8);
+        return (bits & (1L << (local & 63))) != 0;
+    }
+
+    /**
+     * Returns whether or not the index holds any claims in the region of a chunk
+     * @param x X coordinate for the chunk
+     * @param z Z coordinate for the chunk
+     * @return true if the region has claims in the index
+     */
+    boolean hasRegion(int x, int z)
+    {
+        return findRegion(sortKey(x, z) >> (REGION_BITS * 2)) >= 0;
+    }
+
+    /**
+     * Returns the owner of a chunk, with the changes held in an overlay applied
+     * @param overlay ChunkMap of changes made since the index was written
+     * @param x X coordinate for the chunk
+     * @param z Z coordinate for the chunk
+     * @return int id of the owning guild, or ChunkMap.NONE if unclaimed
+     */
+    int getOwner(ChunkMap overlay, int x, int z)
+    {
+        int owner = overlay.get(ChunkMap.pack(x, z));
+        if(owner == ChunkMap.NONE) return getOwner(x, z);
+        return owner == REMOVED ? ChunkMap.NONE : owner;
+    }
+
+    /**
+     * Calls the consumer for every chunk a guild has claimed in the index
+     * @param guildId int id of the guild
+     * @param consumer LongConsumer to call with the packed chunk coordinates of each claim
+     */
+    void forEachClaim(int guildId, LongConsumer consumer)
+    {
+        int low = 0;
+        int high = guildCount - 1;
+        while(low <= high)
+        {
+            int middle = (low + high) >>> 1;
+            int entry = guildOffset + middle * 12;
+            int owner = buffer.getInt(entry);
+            if(owner < guildId) low = middle + 1;
+            else if(owner > guildId) high = middle - 1;
+            else
+            {
+                int start = buffer.getInt(entry + 4);
+                int count = buffer.getInt(entry + 8);
+                for(int i = start; i < start + count; i++) consumer.accept(buffer.getLong(territoryOffset + i * 8));
+                return;
+            }
+        }
+    }
+
+    /**
+     * Finds a region in the region list
+     * @param region long sort key of the region
+     * @return int position of the region, or -1 if it has no claims
+     */
+    private int findRegion(long region)
+    {
+        int low = 0;
+        int high = regionCount - 1;
+        while(low <= high)
+        {
+            int middle = (low + high) >>> 1;
+            long current = buffer.getLong(HEADER_SIZE + middle * 8);
+            if(current < region) low = middle + 1;
+            else if(current > region) high = middle - 1;
+            else return middle;
+        }
+        return -1;
+    }
+
+    /**
+     * Returns the sort key of a chunk
+     * Orders chunks by region, then by their position inside the region
+     * The region X coordinate takes the top 27 bits, the region Z coordinate the next 27 bits
+     * and the position inside the region the last 10 bits
+     * @param x X coordinate for the chunk
+     * @param z Z coordinate for the chunk
+     * @return long sort key
+     */
+    private static long sortKey(int x, int z)
+    {
+        return ((long) (x >> REGION_BITS) << 37)
+                | ((long) ((z >> REGION_BITS) & 0x7FFFFFF) << 10)
+                | ((x & REGION_MASK) << REGION_BITS)
+                | (z & REGION_MASK);
+    }
+
+    /**
+     * Returns the packed chunk coordinates of a sort key
+     * @param sortKey long sort key
+     * @return packed chunk coordinates
+     */
+    private static long unsort(long sortKey)
+    {
+        int x = ((int) (sortKey >> 37) << REGION_BITS) | (int) ((sortKey >> REGION_BITS) & REGION_MASK);
+        int z = ((int) (sortKey << 27 >> 37) << REGION_BITS) | (int) (sortKey & REGION_MASK);
+        return ChunkMap.pack(x, z);
+    }
+
+    /**
+     * Writes a new index in memory, holding the claims of an index with the changes of an overlay applied
+     * Claims of guilds that have been disbanded are dropped
+     * @param base ClaimIndex the overlay was applied to
+     * @param overlay ChunkMap of changes made since the base index was written
+     * @return ClaimIndex held in memory
+     */
+    static ClaimIndex compact(ClaimIndex base, ChunkMap overlay)
+    {
+        long[] sortKeys = new long[base.claimCount + overlay.size()];
+        int count = 0;
+        for(int i = 0; i < base.claimCount; i++)
+        {
+            long key = base.buffer.getLong(base.keyOffset + i * 8);
+            if(overlay.get(key) == ChunkMap.NONE && isSaved(base.buffer.getInt(base.ownerOffset + i * 4)))
+            {
+                sortKeys[count++] = sortKey(ChunkMap.unpackX(key), ChunkMap.unpackZ(key));
+            }
+        }
+        OverlayClaims overlayClaims = new OverlayClaims(sortKeys, count);
+        overlay.forEach(overlayClaims);
+        count = overlayClaims.count;
+        Arrays.sort(sortKeys, 0, count);
+
+        long[] keys = new long[count];
+        int[] owners = new int[count];
+        int maxOwner = 0;
+        int regionCount = 0;
+        for(int i = 0; i < count; i++)
+        {
+            keys[i] = unsort(sortKeys[i]);
+            owners[i] = base.getOwner(overlay, ChunkMap.unpackX(keys[i]), ChunkMap.unpackZ(keys[i]));
+            if(owners[i] > maxOwner) maxOwner = owners[i];
+            if(i == 0 || sortKeys[i] >> (REGION_BITS * 2) != sortKeys[i - 1] >> (REGION_BITS * 2)) regionCount++;
+        }
+
+        //Claim count of every guild, indexed by guild id
+        int[] guildClaims = new int[maxOwner + 1];
+        int guildCount = 0;
+        for(int owner : owners)
+        {
+            if(guildClaims[owner]++ == 0) guildCount++;
+        }
+
+        Writer writer = new Writer(regionCount, count, guildCount);
+        writer.writeClaims(sortKeys, keys, owners);
+        writer.writeGuilds(guildClaims, keys, owners);
+        return wrap(writer.buffer);
+    }
+
+    /**
+     * Returns whether or not the claims of a guild should be kept in a new index
+     * @param owner int id of the guild
+     * @return true unless the guild has been disbanded
+     */
+    private static boolean isSaved(int owner)
+    {
+        return !GuildRegistry.isDisbanded(owner);
+    }
+
+    /**
+     * Collects the sort keys of the claims held in an overlay
+     */
+    private static final class OverlayClaims implements ChunkMap.EntryConsumer
+    {
+        /**
+         * Array the sort keys are added to
+         */
+        private final long[] sortKeys;
+
+        /**
+         * Number of sort keys in the array
+         */
+        private int count;
+
+        /**
+         * Constructor for the OverlayClaims class
+         * @param sortKeys long array the sort keys are added to
+         * @param count number of sort keys already in the array
+         */
+        private OverlayClaims(long[] sortKeys, int count)
+        {
+            this.sortKeys = sortKeys;
+            this.count = count;
+        }
+
+        /**
+         * Adds the sort key of a claim, unless it has been abandoned or its guild no longer exists
+         * @param key packed chunk coordinates
+         * @param owner owner id of the chunk, or REMOVED
+         */
+        @Override
+        public void accept(long key, int owner)
+        {
+            if(owner != REMOVED && isSaved(owner)) sortKeys[count++] = sortKey(ChunkMap.unpackX(key), ChunkMap.unpackZ(key));
+        }
+    }
+
+    /**
+     * Lays out a new index in a heap buffer
+     */
+    private static final class Writer
+    {
+        /**
+         * Buffer the index is written to
+         */
+        private final ByteBuffer buffer;
+
+        /**
+         * Byte offsets of each part of the index
+         */
+        private final int startOffset, tileOffset, keyOffset, ownerOffset, guildOffset, territoryOffset;
+
+        /**
+         * Constructor for the Writer class
+         * Allocates the buffer and writes the header
+         * @param regionCount number of regions with at least one claim
+         * @param claimCount number of claims
+         * @param guildCount number of guilds with at least one claim
+         */
+        private Writer(int regionCount, int claimCount, int guildCount)
+        {
+            startOffset = HEADER_SIZE + regionCount * 8;
+            tileOffset = startOffset + regionCount * 4;
+            keyOffset = tileOffset + regionCount * TILE_WORDS * 8;
+            ownerOffset = keyOffset + claimCount * 8;
+            guildOffset = ownerOffset + claimCount * 4;
+            territoryOffset = guildOffset + guildCount * 12;
+            buffer = ByteBuffer.allocate(territoryOffset + claimCount * 8);
+            buffer.putInt(0, MAGIC);
+            buffer.put(4, SaveFormat.VERSION);
+            buffer.putInt(8, regionCount);
+            buffer.putInt(12, claimCount);
+            buffer.putInt(16, guildCount);
+        }
+
+        /**
+         * Writes the region list, the first claim and claim bitmap of every region, and every claim with its owner
+         * @param sortKeys sorted long array of claim sort keys
+         * @param keys long array of the packed chunk coordinates of every claim, in the same order
+         * @param owners int array of the owner of every claim, in the same order
+         */
+        private void writeClaims(long[] sortKeys, long[] keys, int[] owners)
+        {
+            int region = -1;
+            for(int i = 0; i < keys.length; i++)
+            {
+                long regionKey = sortKeys[i] >> (REGION_BITS * 2);
+                if(i == 0 || regionKey != sortKeys[i - 1] >> (REGION_BITS * 2))
+                {
+                    region++;
+                    buffer.putLong(HEADER_SIZE + region * 8, regionKey);
+                    buffer.putInt(startOffset + region * 4, i);
+                }
+                int local = (int) (sortKeys[i] & ((1 << (REGION_BITS * 2)) - 1));
+                int word = tileOffset + (region * TILE_WORDS + (local >>> 6)) * 8;
+                buffer.putLong(word, buffer.getLong(word) | (1L << (local & 63)));
+                buffer.putLong(keyOffset + i * 8, keys[i]);
+                buffer.putInt(ownerOffset + i * 4, owners[i]);
+            }
+        }
+
+        /**
+         * Writes the guild directory and the claims of every guild
+         * Each guild's claims stay in the same order as in the claim list
+         * @param guildClaims int array of the claim count of every guild, indexed by guild id
+         * @param keys long array of the packed chunk coordinates of every claim
+         * @param owners int array of the owner of every claim, in the same order
+         */
+        private void writeGuilds(int[] guildClaims, long[] keys, int[] owners)
+        {
+            //Position of the next claim of every guild, indexed by guild id
+            int[] next = new int[guildClaims.length];
+            int entry = guildOffset;
+            int start = 0;
+            for(int guild = 0; guild < guildClaims.length; guild++)
+            {
+                if(guildClaims[guild] == 0) continue;
+                buffer.putInt(entry, guild);
+                buffer.putInt(entry + 4, start);
+                buffer.putInt(entry + 8, guildClaims[guild]);
+                entry += 12;
+                next[guild] = start;
+                start += guildClaims[guild];
+            }
+            for(int i = 0; i < keys.length; i++) buffer.putLong(territoryOffset + next[owners[i]]++ * 8, keys[i]);
+        }
+    }
+}
@@ -0,0 +1,43 @@
+package parallaxscience.guilds.guild;
+
+/**
+ * Read-only view of the claimed chunks of a dimension at the time it was taken
+ * Holds the claim index and a copy of its overlay, neither of which is changed by later claims,
+ * so it can be read from other threads
+ * @see ChunkCache#getClaimSnapshot(int)
+ * @author Tristan Jay
+ */
+public final class ClaimSnapshot
+{
+    /**
+     * The claim index of the dimension
+     */
+    private final ClaimIndex index;
+
+    /**
+     * Copy of the changes made since the index was written
+     */
+    private final ChunkMap overlay;
+
+    /**
+     * Constructor for the ClaimSnapshot class
+     * @param index ClaimIndex of the dimension
+     * @param overlay ChunkMap of changes, must not be changed afterwards
+     */
+    ClaimSnapshot(ClaimIndex index, ChunkMap overlay)
+    {
+        this.index = index;
+        this.overlay = overlay;
+    }
+
+    /**
+     * Returns the id of the owner of a chunk
+     * @param x X coordinate for the chunk
+     * @param z Z coordinate for the chunk
+     * @return int id of the owning guild, or GuildRegistry.NONE if unclaimed
+     */
+    public int getOwner(int x, int z)
+    {
+        return index.getOwner(overlay, x, z);
+    }
+}
@@ -8,6 +8,10 @@ import net.minecraft.util.text.TextFormatting;
 import parallaxscience.guilds.config.GuildConfig;
 import parallaxscience.guilds.alliance.Alliance;
 import parallaxscience.guilds.config.RaidConfig;
+import parallaxscience.guilds.persistence.SaveFormat;
+import java.io.DataInput;
+import java.io.DataOutput;
+import java.io.IOException;
 import java.io.Serializable;
 import java.util.*;
 
@@ -18,6 +22,12 @@ import java.util.*;
  */
 public class Guild implements Serializable
 {
+    /**
+     * Serialization version of the class
+     * Matches the version of the original class so older save files can still be read
+     */
+    private static final long serialVersionUID = 3170179120719259097L;
+
     /**
      * Enum used to represent a member's rank in a guild
      * Used for rank comparisons
@@ -29,6 +39,12 @@ public class Guild implements Serializable
         MASTER
     }
 
+    /**
+     * Registry id of the guild
+     * @see GuildRegistry
+     */
+    private int id;
+
     /**
      * Name of the guild
      */
@@ -75,6 +91,12 @@ public class Guild implements Serializable
      */
     private long nextRaidInterval;
 
+    /**
+     * Whether or not the guild has changed since it was last saved
+     * @see GuildCache#save()
+     */
+    private transient boolean dirty;
+
     /**
      * Constructor for the Guild class
      * Called whenever a new guild is formed
@@ -90,6 +112,107 @@ public class Guild implements Serializable
         members.put(guildMaster, Rank.MASTER);
     }
 
+    /**
+     * Marks the guild as changed, so it is written the next time the GuildCache is saved
+     * Called by every method that changes saved data
+     */
+    void markDirty()
+    {
+        if(dirty) return;
+        dirty = true;
+        GuildCache.markDirty(this);
+    }
+
+    /**
+     * Marks the guild as saved
+     * Only used by the GuildCache
+     */
+    void clearDirty()
+    {
+        dirty = false;
+    }
+
+    /**
+     * Writes the guild to a save file
+     * @param output DataOutput to write to
+     * @see SaveFormat
+     */
+    void writeTo(DataOutput output) throws IOException
+    {
+        output.writeInt(id);
+        output.writeUTF(guildName);
+        SaveFormat.writeUUID(output, guildMaster);
+        output.writeInt(members.size());
+        for(Map.Entry<UUID, Rank> member : members.entrySet())
+        {
+            SaveFormat.writeUUID(output, member.getKey());
+            output.writeByte(member.getValue().ordinal());
+        }
+        output.writeInt(invitees.size());
+        for(UUID invitee : invitees) SaveFormat.writeUUID(output, invitee);
+        output.writeInt(territoryCount);
+        output.writeUTF(alliance == null ? "" : alliance);
+        output.writeUTF(color == null ? "" : color.name());
+        output.writeLong(nextRaidInterval);
+    }
+
+    /**
+     * Reads a guild from a save file
+     * @param input DataInput to read from
+     * @return Guild that was read
+     * @throws IOException if the file cannot be read or holds invalid values
+     * @see SaveFormat
+     */
+    static Guild readFrom(DataInput input) throws IOException
+    {
+        int id = input.readInt();
+        Guild guild = new Guild(input.readUTF(), SaveFormat.readUUID(input));
+        guild.id = id;
+        int memberCount = input.readInt();
+        for(int i = 0; i < memberCount; i++) guild.members.put(SaveFormat.readUUID(input), readRank(input));
+        int inviteeCount = input.readInt();
+        for(int i = 0; i < inviteeCount; i++) guild.invitees.add(SaveFormat.readUUID(input));
+        guild.territoryCount = input.readInt();
+        String alliance = input.readUTF();
+        guild.alliance = alliance.isEmpty() ? null : alliance;
+        String color = input.readUTF();
+        guild.color = color.isEmpty() ? null : readColor(color);
+        guild.nextRaidInterval = input.readLong();
+        return guild;
+    }
+
+    /**
+     * Reads the rank of a member from a save file
+     * @param input DataInput to read from
+     * @return Rank that was read
+     * @throws IOException if the rank is not a valid rank
+     */
+    private static Rank readRank(DataInput input) throws IOException
+    {
+        Rank[] ranks = Rank.values();
+        int rank = input.readUnsignedByte();
+        if(rank >= ranks.length) throw new IOException("Invalid rank " + rank);
+        return ranks[rank];
+    }
+
+    /**
+     * Reads the color of a guild from its saved name
+     * @param color String name of the color
+     * @return TextFormatting of the color
+     * @throws IOException if the name is not a valid color
+     */
+    private static TextFormatting readColor(String color) throws IOException
+    {
+        try
+        {
+            return TextFormatting.valueOf(color);
+        }
+        catch(IllegalArgumentException e)
+        {
+            throw new IOException("Invalid color " + color);
+        }
+    }
+
     /**
      * Transfers ownership of the guild to another individual
      * Replaces the old guild master with a new one
@@ -100,7 +223,7 @@ public class Guild implements Serializable
         members.replace(guildMaster, Rank.MEMBER);
         members.replace(newMaster, Rank.MASTER);
         guildMaster = newMaster;
-        members.remove(newMaster);
+        markDirty();
     }
 
     /**
@@ -112,6 +235,26 @@ public class Guild implements Serializable
         return guildMaster;
     }
 
+    /**
+     * Returns the registry id of the guild
+     * @return int id of the guild
+     * @see GuildRegistry
+     */
+    public int getId()
+    {
+        return id;
+    }
+
+    /**
+     * Sets the registry id of the guild
+     * Only used by the GuildRegistry
+     * @param id int id of the guild
+     */
+    void setId(int id)
+    {
+        this.id = id;
+    }
+
     /**
      * Returns the name of the guild
      * @return string containing the guild name
@@ -126,7 +269,9 @@ public class Guild implements Serializable
      */
     public void removeMember(UUID member)
     {
-        members.remove(member);
+        if(members.remove(member) == null) return;
+        markDirty();
+        GuildCache.removeMember(member);
     }
 
     /**
@@ -148,6 +293,7 @@ public class Guild implements Serializable
         Rank currentRank = members.get(member);
         if(currentRank == Rank.ADMIN) return;
         members.replace(member, members.get(member), Rank.ADMIN);
+        markDirty();
     }
 
     /**
@@ -159,6 +305,7 @@ public class Guild implements Serializable
         Rank currentRank = members.get(member);
         if(currentRank.equals(Rank.MEMBER)) return;
         members.replace(member, members.get(member), Rank.MEMBER);
+        markDirty();
     }
 
     /**
@@ -171,6 +318,8 @@ public class Guild implements Serializable
         if(!invitees.contains(player)) return false;
         invitees.remove(player);
         members.put(player, Rank.MEMBER);
+        markDirty();
+        GuildCache.addMember(player, this);
         return true;
     }
 
@@ -238,6 +387,7 @@ public class Guild implements Serializable
     public void setColor(TextFormatting textFormatting)
     {
         this.color = textFormatting;
+        markDirty();
     }
 
     /**
@@ -275,6 +425,7 @@ public class Guild implements Serializable
     public void incrementTerritoryCount()
     {
         territoryCount += 1;
+        markDirty();
     }
 
     /**
@@ -284,6 +435,7 @@ public class Guild implements Serializable
     public void decrementTerritoryCount()
     {
         territoryCount -= 1;
+        markDirty();
     }
 
     /**
@@ -303,6 +455,7 @@ public class Guild implements Serializable
     public void addInvitee(UUID player)
     {
         invitees.add(player);
+        markDirty();
     }
 
     /**
@@ -323,6 +476,7 @@ public class Guild implements Serializable
     public void setAlliance(String alliance)
     {
         this.alliance = alliance;
+        markDirty();
     }
 
     /**
@@ -331,6 +485,16 @@ public class Guild implements Serializable
     public void resetRaidInterval()
     {
         nextRaidInterval = RaidConfig.shieldDuration*60000 + System.currentTimeMillis();
+        markDirty();
+    }
+
+    /**
+     * Returns the system time that the raid shield runs out
+     * @return time in milliseconds, in the past if there is no shield
+     */
+    public long getShieldEnd()
+    {
+        return nextRaidInterval;
     }
 
     /**
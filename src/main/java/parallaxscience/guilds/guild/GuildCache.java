@@ -1,7 +1,16 @@
 package parallaxscience.guilds.guild;
 
+import parallaxscience.guilds.Guilds;
 import parallaxscience.guilds.utility.FileUtility;
+import parallaxscience.guilds.capability.PlayerData;
+import parallaxscience.guilds.persistence.PersistenceService;
+import parallaxscience.guilds.persistence.SaveFormat;
+import parallaxscience.guilds.protection.ProtectionService;
+import java.io.DataInputStream;
+import java.io.File;
+import java.io.IOException;
 import java.util.*;
+import java.util.stream.Collectors;
 
 /**
  * Class that is used to store and manage guild information
@@ -11,10 +20,28 @@ import java.util.*;
 public final class GuildCache
 {
     /**
-     * Filepath to the GuildCache save file location
+     * Filepath to the GuildCache save file location used before per-guild files
+     * Only read, to migrate it to per-guild files
      */
     private final static String fileName = FileUtility.guildDirectory + "/" + "GuildCache.dat";
 
+    /**
+     * Directory that holds the save file of every guild
+     */
+    private final static String guildFileDirectory = FileUtility.guildDirectory + "/guilds";
+
+    /**
+     * Marks the start of a GuildCache save file that holds every guild
+     * @see SaveFormat
+     */
+    private static final int CACHE_MAGIC = 0x474C4447;
+
+    /**
+     * Marks the start of the save file of a single guild
+     * @see SaveFormat
+     */
+    private static final int GUILD_MAGIC = 0x474C4752;
+
     /**
      * HashMap of guilds
      * Key is the name of the guild
@@ -23,21 +50,59 @@ public final class GuildCache
      */
     private static HashMap<String, Guild> guilds;
 
+    /**
+     * The guilds that have changed since they were last saved
+     * Filled in by the Guild mutators
+     * @see Guild#markDirty()
+     */
+    private static final ArrayList<Guild> dirtyGuilds = new ArrayList<>();
+
+    /**
+     * HashMap of the guild of every guild member
+     * Key is the UUID of the member
+     * Kept in sync by the Guild membership methods
+     * @see HashMap
+     * @see Guild
+     */
+    private static HashMap<UUID, Guild> playerGuilds;
+
     /**
      * Initialize function for the class
-     * Attempts to load the guild data from file
+     * Attempts to load the guild data from file, reading the guild files in parallel
+     * A GuildCache save file from before per-guild files is read instead and migrated
      * If no guild data is found, create a new HashMap
      */
     @SuppressWarnings("unchecked")
     public static void initialize()
     {
+        boolean migrate = new File(fileName).isFile();
+        boolean complete = true;
         try
         {
-            guilds = (HashMap<String, Guild>) FileUtility.readFromFile(fileName);
+            if(!migrate) guilds = loadGuilds();
+            else if(SaveFormat.isLegacy(fileName)) guilds = (HashMap<String, Guild>) FileUtility.readFromFile(fileName);
+            else guilds = loadCache();
         }
         catch(Exception e)
         {
+            Guilds.logger.info("ERROR: Exception while trying to read the guild data, claims are kept until it can be read");
             guilds = new HashMap<>();
+            migrate = false;
+            complete = false;
+        }
+        boolean assigned = GuildRegistry.initialize(guilds.values(), complete);
+        reserveUnreadGuilds();
+        if(assigned || migrate)
+        {
+            for(Guild guild : guilds.values()) guild.markDirty();
+            save();
+            if(migrate) PersistenceService.markDirty(fileName, () -> null);
+        }
+
+        playerGuilds = new HashMap<>();
+        for(Guild guild : guilds.values())
+        {
+            for(UUID member : guild.getAllMembers()) playerGuilds.put(member, guild);
         }
     }
 
@@ -48,8 +113,32 @@ public final class GuildCache
      */
     public static Guild getPlayerGuild(UUID player)
     {
-        for(Map.Entry<String, Guild> g : guilds.entrySet()) if(g.getValue().isMember(player)) return g.getValue();
-        return null;
+        return playerGuilds.get(player);
+    }
+
+    /**
+     * Records a player as a member of a guild
+     * Called by the Guild whenever a member joins
+     * @param player UUID of player
+     * @param guild Guild object reference
+     */
+    static void addMember(UUID player, Guild guild)
+    {
+        playerGuilds.put(player, guild);
+        ProtectionService.membershipChanged();
+        PlayerData.refresh(player);
+    }
+
+    /**
+     * Removes a player from the member list
+     * Called by the Guild whenever a member leaves
+     * @param player UUID of player
+     */
+    static void removeMember(UUID player)
+    {
+        playerGuilds.remove(player);
+        ProtectionService.membershipChanged();
+        PlayerData.refresh(player);
     }
 
     /**
@@ -62,6 +151,15 @@ public final class GuildCache
         return guilds.get(guildName);
     }
 
+    /**
+     * Returns all of the guild object references
+     * @return unmodifiable Collection of all guilds
+     */
+    public static Collection<Guild> getGuilds()
+    {
+        return Collections.unmodifiableCollection(guilds.values());
+    }
+
     /**
      * Returns a list of all of the guilds
      * @return String List of all guilds
@@ -99,7 +197,11 @@ public final class GuildCache
     public static boolean addGuild(String guildName, UUID guildMaster)
     {
         if(guilds.containsKey(guildName)) return false;
-        guilds.put(guildName, new Guild(guildName, guildMaster));
+        Guild guild = new Guild(guildName, guildMaster);
+        GuildRegistry.register(guild);
+        guilds.put(guildName, guild);
+        guild.markDirty();
+        addMember(guildMaster, guild);
         return true;
     }
 
@@ -109,15 +211,124 @@ public final class GuildCache
      */
     public static void removeGuild(Guild guild)
     {
-        ChunkCache.removeAllClaimed(guild.getGuildName());
+        ChunkCache.removeAllClaimed(guild.getId());
         guilds.remove(guild.getGuildName());
+        GuildRegistry.unregister(guild);
+        guild.markDirty();
+        for(UUID member : guild.getAllMembers()) removeMember(member);
+    }
+
+    /**
+     * Records a guild as changed since it was last saved
+     * Called by the Guild the first time it changes after a save
+     * @param guild Guild object reference
+     */
+    static void markDirty(Guild guild)
+    {
+        dirtyGuilds.add(guild);
     }
 
     /**
-     * Saves the guild data to file
+     * Marks the save files of the guilds that have changed to be saved
+     * The files are written in the background at the end of the tick
+     * @see PersistenceService
      */
     public static void save()
     {
-        FileUtility.saveToFile(fileName, guilds);
+        for(Guild guild : dirtyGuilds)
+        {
+            guild.clearDirty();
+            PersistenceService.markDirty(getFileName(guild), () -> serialize(guild));
+        }
+        dirtyGuilds.clear();
+    }
+
+    /**
+     * Returns the save file of a guild
+     * @param guild Guild object reference
+     * @return String path to the save file
+     */
+    private static String getFileName(Guild guild)
+    {
+        return guildFileDirectory + "/" + guild.getId() + ".dat";
+    }
+
+    /**
+     * Reads every guild file, in parallel
+     * A guild file that cannot be read is skipped, so it does not affect the other guilds
+     * @return HashMap of guilds, keyed by name
+     */
+    private static HashMap<String, Guild> loadGuilds()
+    {
+        HashMap<String, Guild> loaded = new HashMap<>();
+        String[] files = new File(guildFileDirectory).list();
+        if(files == null) return loaded;
+        List<Guild> read = Arrays.stream(files).parallel().filter(file -> file.endsWith(".dat")).map(GuildCache::loadGuild).filter(Objects::nonNull).collect(Collectors.toList());
+        for(Guild guild : read) loaded.put(guild.getGuildName(), guild);
+        return loaded;
+    }
+
+    /**
+     * Reserves the ids of the guild files that were not loaded
+     * New guilds never take their id, and their claims are kept until the file can be read
+     * @see GuildRegistry#reserve(int)
+     */
+    private static void reserveUnreadGuilds()
+    {
+        String[] files = new File(guildFileDirectory).list();
+        if(files == null) return;
+        for(String file : files)
+        {
+            if(!file.matches("\\d+\\.dat")) continue;
+            GuildRegistry.reserve(Integer.parseInt(file.substring(0, file.length() - 4)));
+        }
+    }
+
+    /**
+     * Reads a guild file
+     * @param file String name of the file, without its directory
+     * @return Guild that was read, or null if the file could not be read
+     */
+    private static Guild loadGuild(String file)
+    {
+        try(DataInputStream input = SaveFormat.open(guildFileDirectory + "/" + file, GUILD_MAGIC))
+        {
+            return Guild.readFrom(input);
+        }
+        catch(IOException e)
+        {
+            Guilds.logger.info("ERROR: IOException while trying to read " + file);
+            return null;
+        }
+    }
+
+    /**
+     * Reads a GuildCache save file that holds every guild, one guild at a time
+     * @return HashMap of guilds, keyed by name
+     */
+    private static HashMap<String, Guild> loadCache() throws IOException
+    {
+        try(DataInputStream input = SaveFormat.open(fileName, CACHE_MAGIC))
+        {
+            int count = input.readInt();
+            HashMap<String, Guild> loaded = new HashMap<>(count * 2);
+            for(int i = 0; i < count; i++)
+            {
+                Guild guild = Guild.readFrom(input);
+                loaded.put(guild.getGuildName(), guild);
+            }
+            return loaded;
+        }
+    }
+
+    /**
+     * Writes a guild file in the binary format
+     * @param guild Guild object reference
+     * @return byte array of the guild file, or null if the guild has been removed and its file should be deleted
+     */
+    private static byte[] serialize(Guild guild) throws IOException
+    {
+        if(GuildRegistry.getGuild(guild.getId()) != guild) return null;
+        return SaveFormat.write(GUILD_MAGIC, guild::writeTo);
     }
 }
@@ -0,0 +1,156 @@
+package parallaxscience.guilds.guild;
+
+import java.util.Arrays;
+import java.util.Collection;
+
+/**
+ * Class that maps guild ids to guilds
+ * Every guild is given a small, stable int id when it is formed
+ * Caches store these ids and only resolve them to names for display
+ * @author Tristan Jay
+ */
+public final class GuildRegistry
+{
+    /**
+     * Id that is never given to a guild
+     * Used to represent "no guild"
+     */
+    public static final int NONE = ChunkMap.NONE;
+
+    /**
+     * Guilds indexed by their id
+     * Slots of disbanded guilds are left empty, ids are never reused
+     */
+    private static Guild[] guilds;
+
+    /**
+     * The id that will be given to the next new guild
+     */
+    private static int nextId;
+
+    /**
+     * Whether or not every saved guild was loaded
+     * While false, claims of unknown guilds are kept instead of being dropped
+     */
+    private static boolean complete;
+
+    /**
+     * Initialize function for the class
+     * Registers all of the loaded guilds under their saved ids
+     * Guilds from before ids were introduced are given new ids
+     * @param loaded Collection of all loaded guilds
+     * @param complete whether or not every saved guild was loaded
+     * @return true if any guild was given a new id and the guilds should be saved
+     */
+    static boolean initialize(Collection<Guild> loaded, boolean complete)
+    {
+        GuildRegistry.complete = complete;
+        guilds = new Guild[16];
+        nextId = NONE + 1;
+        for(Guild guild : loaded)
+        {
+            if(guild.getId() >= nextId) nextId = guild.getId() + 1;
+        }
+
+        boolean assigned = false;
+        for(Guild guild : loaded)
+        {
+            if(guild.getId() == NONE)
+            {
+                guild.setId(nextId++);
+                assigned = true;
+            }
+            put(guild);
+        }
+        return assigned;
+    }
+
+    /**
+     * Gives a new guild an id and adds it to the registry
+     * @param guild Guild object reference
+     */
+    static void register(Guild guild)
+    {
+        guild.setId(nextId++);
+        put(guild);
+    }
+
+    /**
+     * Keeps the id of a saved guild that was not loaded from being given to a new guild
+     * Claims of unknown guilds are kept from then on, as they may belong to it
+     * @param id int id of the guild
+     */
+    static void reserve(int id)
+    {
+        if(getGuild(id) != null) return;
+        complete = false;
+        if(id >= nextId) nextId = id + 1;
+    }
+
+    /**
+     * Removes a guild from the registry
+     * @param guild Guild object reference
+     */
+    static void unregister(Guild guild)
+    {
+        guilds[guild.getId()] = null;
+    }
+
+    /**
+     * Returns the guild with the given id
+     * @param id int id of the guild
+     * @return Guild object reference, or null if there is no such guild
+     */
+    public static Guild getGuild(int id)
+    {
+        if(id <= NONE || id >= guilds.length) return null;
+        return guilds[id];
+    }
+
+    /**
+     * Returns whether or not the guild with the given id has been disbanded
+     * Guilds that could not be loaded are never reported as disbanded, so their claims are not dropped
+     * @param id int id of the guild
+     * @return true if the guild's claims can be dropped
+     */
+    public static boolean isDisbanded(int id)
+    {
+        return complete && getGuild(id) == null;
+    }
+
+    /**
+     * Returns the name of the guild with the given id
+     * @param id int id of the guild
+     * @return String name of the guild, or null if there is no such guild
+     */
+    public static String getGuildName(int id)
+    {
+        Guild guild = getGuild(id);
+        if(guild == null) return null;
+        return guild.getGuildName();
+    }
+
+    /**
+     * Returns the id of the named guild
+     * @param guildName String name of the guild
+     * @return int id of the guild, or NONE if there is no such guild
+     */
+    public static int getGuildId(String guildName)
+    {
+        Guild guild = GuildCache.getGuild(guildName);
+        if(guild == null) return NONE;
+        return guild.getId();
+    }
+
+    /**
+     * Stores a guild in the slot for its id
+     * Grows the guild array if needed
+     * @param guild Guild object reference
+     */
+    private static void put(Guild guild)
+    {
+        int id = guild.getId();
+        if(id >= guilds.length) guilds = Arrays.copyOf(guilds, Math.max(id + 1, guilds.length << 1));
+        guilds[id] = guild;
+    }
+}
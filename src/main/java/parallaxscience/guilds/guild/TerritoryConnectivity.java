@@ -0,0 +1,226 @@
+package parallaxscience.guilds.guild;
+
+/**
+ * Class that answers connectivity questions about a guild's territory
+ * Works directly on the guild's ChunkSet, so it is always consistent with the current claims
+ * @see ChunkSet
+ * @author Tristan Jay
+ */
+final class TerritoryConnectivity
+{
+    /**
+     * X offsets of the eight chunks surrounding a chunk, in clockwise order starting north
+     * Consecutive entries (including the last and the first) always share an edge
+     */
+    private static final int[] RING_X = {0, 1, 1, 1, 0, -1, -1, -1};
+
+    /**
+     * Z offsets of the eight chunks surrounding a chunk, in clockwise order starting north
+     */
+    private static final int[] RING_Z = {-1, -1, 0, 1, 1, 1, 0, -1};
+
+    /**
+     * Returns whether or not a chunk can be removed from a territory without splitting it
+     * First checks the eight surrounding chunks, which settles almost every case in constant time
+     * Otherwise runs one breadth-first search per side of the chunk in lockstep
+     * The searches stop as soon as they have all met, or as soon as one of them runs out of chunks,
+     * so the cost is bounded by the smaller side instead of the whole territory
+     * @param territory ChunkSet of the guild's territory
+     * @param key packed chunk coordinates of the chunk to remove
+     * @return true if the territory stays connected after the chunk is removed
+     */
+    static boolean canRemove(ChunkSet territory, long key)
+    {
+        if(!territory.contains(key)) return false;
+
+        int x = ChunkMap.unpackX(key);
+        int z = ChunkMap.unpackZ(key);
+
+        boolean[] owned = new boolean[RING_X.length];
+        int firstFree = -1;
+        for(int i = 0; i < owned.length; i++)
+        {
+            owned[i] = territory.contains(ChunkMap.pack(x + RING_X[i], z + RING_Z[i]));
+            if(!owned[i] && firstFree < 0) firstFree = i;
+        }
+        //Completely surrounded, every neighbour is connected through the ring
+        if(firstFree < 0) return true;
+
+        //Split the ring into runs of owned chunks and keep one edge neighbour from each run that has one
+        long[] sides = new long[4];
+        int sideCount = 0;
+        boolean runHasSide = false;
+        for(int step = 1; step <= owned.length; step++)
+        {
+            int i = (firstFree + step) % owned.length;
+            if(!owned[i])
+            {
+                runHasSide = false;
+                continue;
+            }
+            //Even ring indices are the four edge neighbours
+            if((i & 1) == 0 && !runHasSide)
+            {
+                sides[sideCount++] = ChunkMap.pack(x + RING_X[i], z + RING_Z[i]);
+                runHasSide = true;
+            }
+        }
+        if(sideCount <= 1) return true;
+
+        return sidesStayConnected(territory, key, sides, sideCount);
+    }
+
+    /**
+     * Runs the lockstep breadth-first searches from each side of a removed chunk
+     * @param territory ChunkSet of the guild's territory
+     * @param removed packed chunk coordinates of the chunk being removed
+     * @param sides packed chunk coordinates of one neighbour per side
+     * @param sideCount number of sides
+     * @return true if every side can still reach every other side
+     */
+    private static boolean sidesStayConnected(ChunkSet territory, long removed, long[] sides, int sideCount)
+    {
+        //Visited chunks, mapped to the search that reached them first plus one
+        ChunkMap visited = new ChunkMap();
+        visited.put(removed, Integer.MAX_VALUE);
+
+        LongQueue[] queues = new LongQueue[sideCount];
+        int[] parent = new int[sideCount];
+        for(int i = 0; i < sideCount; i++)
+        {
+            queues[i] = new LongQueue();
+            queues[i].add(sides[i]);
+            visited.put(sides[i], i + 1);
+            parent[i] = i;
+        }
+
+        int groups = sideCount;
+        while(true)
+        {
+            for(int search = 0; search < sideCount; search++)
+            {
+                if(isExhausted(queues, parent, find(parent, search)))
+                {
+                    //Every chunk reachable from this side has been seen without meeting the others
+                    return false;
+                }
+
+                LongQueue queue = queues[search];
+                if(queue.isEmpty()) continue;
+
+                long current = queue.poll();
+                int x = ChunkMap.unpackX(current);
+                int z = ChunkMap.unpackZ(current);
+                for(int i = 0; i < RING_X.length; i += 2)
+                {
+                    long next = ChunkMap.pack(x + RING_X[i], z + RING_Z[i]);
+                    if(!territory.contains(next)) continue;
+
+                    int reachedBy = visited.get(next);
+                    if(reachedBy == ChunkMap.NONE)
+                    {
+                        visited.put(next, search + 1);
+                        queue.add(next);
+                    }
+                    else if(reachedBy != Integer.MAX_VALUE)
+                    {
+                        int a = find(parent, search);
+                        int b = find(parent, reachedBy - 1);
+                        if(a != b)
+                        {
+                            parent[b] = a;
+                            if(--groups == 1) return true;
+                        }
+                    }
+                }
+            }
+        }
+    }
+
+    /**
+     * Returns whether or not every search in a group has run out of chunks
+     * @param queues array of search queues
+     * @param parent array of parent search indices
+     * @param group index of the search that represents the group
+     * @return true if the group cannot reach any more chunks
+     */
+    private static boolean isExhausted(LongQueue[] queues, int[] parent, int group)
+    {
+        for(int search = 0; search < queues.length; search++)
+        {
+            if(!queues[search].isEmpty() && find(parent, search) == group) return false;
+        }
+        return true;
+    }
+
+    /**
+     * Finds the group a search belongs to
+     * @param parent array of parent search indices
+     * @param search index of the search
+     * @return index of the search that represents the group
+     */
+    private static int find(int[] parent, int search)
+    {
+        while(parent[search] != search) search = parent[search];
+        return search;
+    }
+
+    /**
+     * Growable first-in first-out queue of packed chunk coordinates
+     */
+    private static final class LongQueue
+    {
+        /**
+         * Circular buffer of queued keys, capacity is always a power of two
+         */
+        private long[] buffer = new long[16];
+
+        /**
+         * Index of the first queued key
+         */
+        private int head;
+
+        /**
+         * Number of queued keys
+         */
+        private int size;
+
+        /**
+         * Adds a key to the end of the queue
+         * @param key packed chunk coordinates
+         */
+        void add(long key)
+        {
+            if(size == buffer.length)
+            {
+                long[] grown = new long[buffer.length << 1];
+                for(int i = 0; i < size; i++) grown[i] = buffer[(head + i) & (buffer.length - 1)];
+                buffer = grown;
+                head = 0;
+            }
+            buffer[(head + size) & (buffer.length - 1)] = key;
+            size++;
+        }
+
+        /**
+         * Removes the key at the front of the queue
+         * @return packed chunk coordinates
+         */
+        long poll()
+        {
+            long key = buffer[head];
+            head = (head + 1) & (buffer.length - 1);
+            size--;
+            return key;
+        }
+
+        /**
+         * Returns whether or not the queue is empty
+         * @return true if there are no queued keys
+         */
+        boolean isEmpty()
+        {
+            return size == 0;
+        }
+    }
+}
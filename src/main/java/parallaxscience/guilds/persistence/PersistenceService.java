@@ -0,0 +1,249 @@
+package parallaxscience.guilds.persistence;
+
+import net.minecraftforge.fml.common.eventhandler.SubscribeEvent;
+import net.minecraftforge.fml.common.gameevent.TickEvent;
+import parallaxscience.guilds.Guilds;
+import parallaxscience.guilds.utility.FileUtility;
+import java.io.File;
+import java.io.IOException;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+/**
+ * Write-behind persistence for the guild, alliance and claim caches
+ * Caches mark their save file dirty instead of writing it, at the end of the server tick
+ * every dirty file is snapshotted and handed to a background thread that writes it to disk
+ * Any number of saves of the same file within a tick, or while the file is waiting to be written,
+ * collapse into a single write of the latest snapshot
+ * @author Tristan Jay
+ */
+public final class PersistenceService
+{
+    /**
+     * Takes a copy of a cache's data that can be written to file from another thread
+     * Always called on the server thread
+     * Returning null deletes the file instead
+     */
+    @FunctionalInterface
+    public interface Snapshot
+    {
+        /**
+         * Takes the snapshot
+         * @return byte array to write to file, or null to delete the file
+         * @throws IOException if the data could not be serialized
+         */
+        byte[] take() throws IOException;
+    }
+
+    /**
+     * Files that have changed and have not been snapshotted yet
+     * Only used on the server thread
+     */
+    private static final LinkedHashMap<String, Snapshot> dirty = new LinkedHashMap<>();
+
+    /**
+     * Snapshots waiting to be written, keyed by file name
+     * Guarded by itself
+     */
+    private static final LinkedHashMap<String, byte[]> pending = new LinkedHashMap<>();
+
+    /**
+     * Pending snapshot of a file that should be deleted
+     */
+    private static final byte[] DELETED = new byte[0];
+
+    /**
+     * Held while writing, so two writes of the same file never overlap
+     */
+    private static final Object writeLock = new Object();
+
+    /**
+     * The background thread that writes snapshots to file
+     */
+    private static final ExecutorService writer = Executors.newSingleThreadExecutor(PersistenceService::newWriterThread);
+
+    /**
+     * Whether or not a write of the pending snapshots has been handed to the background thread
+     * Guarded by pending
+     */
+    private static boolean scheduled = false;
+
+    /**
+     * Marks a file as changed
+     * The file is snapshotted at the end of the tick and written in the background
+     * Files are written in the order they were last marked, so a file marked after another is never written before it
+     * @param fileName String name of the file
+     * @param snapshot Snapshot that takes a copy of the data to write
+     */
+    public static void markDirty(String fileName, Snapshot snapshot)
+    {
+        dirty.remove(fileName);
+        dirty.put(fileName, snapshot);
+    }
+
+    /**
+     * Called at the end of every server tick
+     * Snapshots every dirty file and hands them to the background thread
+     * @param event ServerTickEvent
+     * @see TickEvent.ServerTickEvent
+     */
+    @SubscribeEvent
+    @SuppressWarnings("unused")
+    public void onServerTick(TickEvent.ServerTickEvent event)
+    {
+        if(event.phase != TickEvent.Phase.END || dirty.isEmpty()) return;
+        snapshotAll();
+        synchronized(pending)
+        {
+            if(scheduled || pending.isEmpty()) return;
+            scheduled = true;
+        }
+        writer.execute(PersistenceService::writePending);
+    }
+
+    /**
+     * Writes every changed file straight away and waits for the background thread to finish
+     * Called when the server stops
+     */
+    public static void flush()
+    {
+        snapshotAll();
+        writePending();
+    }
+
+    /**
+     * Writes the changed files whose name starts with a prefix straight away
+     * Called before files are read back so a read never sees an older version, without writing any other file
+     * @param prefix String start of the file names, usually a directory
+     */
+    public static void flush(String prefix)
+    {
+        Iterator<Map.Entry<String, Snapshot>> dirtyIterator = dirty.entrySet().iterator();
+        while(dirtyIterator.hasNext())
+        {
+            Map.Entry<String, Snapshot> entry = dirtyIterator.next();
+            if(!entry.getKey().startsWith(prefix)) continue;
+            snapshot(entry.getKey(), entry.getValue());
+            dirtyIterator.remove();
+        }
+
+        synchronized(writeLock)
+        {
+            LinkedHashMap<String, byte[]> writes = new LinkedHashMap<>();
+            synchronized(pending)
+            {
+                Iterator<Map.Entry<String, byte[]>> pendingIterator = pending.entrySet().iterator();
+                while(pendingIterator.hasNext())
+                {
+                    Map.Entry<String, byte[]> entry = pendingIterator.next();
+                    if(!entry.getKey().startsWith(prefix)) continue;
+                    writes.put(entry.getKey(), entry.getValue());
+                    pendingIterator.remove();
+                }
+            }
+            writes.forEach(PersistenceService::write);
+        }
+    }
+
+    /**
+     * Snapshots every dirty file
+     */
+    private static void snapshotAll()
+    {
+        for(Map.Entry<String, Snapshot> entry : dirty.entrySet()) snapshot(entry.getKey(), entry.getValue());
+        dirty.clear();
+    }
+
+    /**
+     * Takes the snapshot of a file and adds it to the pending snapshots
+     * Replaces any older snapshot of the file that has not been written yet
+     * @param fileName String name of the file
+     * @param snapshot Snapshot to take
+     */
+    private static void snapshot(String fileName, Snapshot snapshot)
+    {
+        byte[] data;
+        try
+        {
+            data = snapshot.take();
+        }
+        catch(IOException e)
+        {
+            Guilds.logger.info("ERROR: IOException while trying to save to " + fileName);
+            return;
+        }
+        synchronized(pending)
+        {
+            pending.remove(fileName);
+            pending.put(fileName, data == null ? DELETED : data);
+        }
+    }
+
+    /**
+     * Writes pending snapshots until there are none left
+     */
+    private static void writePending()
+    {
+        synchronized(writeLock)
+        {
+            while(true)
+            {
+                String fileName;
+                byte[] data;
+                synchronized(pending)
+                {
+                    Iterator<Map.Entry<String, byte[]>> iterator = pending.entrySet().iterator();
+                    if(!iterator.hasNext())
+                    {
+                        scheduled = false;
+                        return;
+                    }
+                    Map.Entry<String, byte[]> entry = iterator.next();
+                    iterator.remove();
+                    fileName = entry.getKey();
+                    data = entry.getValue();
+                }
+                write(fileName, data);
+            }
+        }
+    }
+
+    /**
+     * Writes a snapshot to file, or deletes the file
+     * @param fileName String name of the file
+     * @param data byte array to write, or DELETED
+     */
+    @SuppressWarnings("ResultOfMethodCallIgnored")
+    private static void write(String fileName, byte[] data)
+    {
+        if(data == DELETED)
+        {
+            new File(fileName).delete();
+            return;
+        }
+        try
+        {
+            FileUtility.writeToFile(fileName, data);
+        }
+        catch(IOException e)
+        {
+            Guilds.logger.info("ERROR: IOException while trying to save to " + fileName);
+        }
+    }
+
+    /**
+     * Creates the background thread
+     * The thread is a daemon so it never keeps the game running, everything is flushed when the server stops
+     * @param runnable Runnable the thread runs
+     * @return Thread the writer runs on
+     */
+    private static Thread newWriterThread(Runnable runnable)
+    {
+        Thread thread = new Thread(runnable, "Guilds-Persistence");
+        thread.setDaemon(true);
+        return thread;
+    }
+}
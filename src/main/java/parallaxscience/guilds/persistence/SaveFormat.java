@@ -0,0 +1,120 @@
+package parallaxscience.guilds.persistence;
+
+import parallaxscience.guilds.utility.FileUtility;
+import java.io.*;
+import java.util.UUID;
+
+/**
+ * The binary format of the guild save files
+ * Every file starts with a four byte magic number that names its contents, followed by the format version
+ * The contents are written with DataOutput and read back one record at a time, without Java serialization
+ * Files written by older versions of the mod hold a serialized object instead, and start with the serialization header
+ * @see PersistenceService
+ * @author Tristan Jay
+ */
+public final class SaveFormat
+{
+    /**
+     * Current version of the format
+     * Files with a newer version are refused instead of being misread
+     */
+    public static final byte VERSION = 1;
+
+    /**
+     * First two bytes of a file written with Java serialization
+     */
+    private static final int SERIALIZATION_MAGIC = 0xACED;
+
+    /**
+     * Writes the contents of a file
+     */
+    @FunctionalInterface
+    public interface Body
+    {
+        /**
+         * Writes the contents
+         * @param output DataOutputStream to write to
+         * @throws IOException if the contents could not be written
+         */
+        void writeTo(DataOutputStream output) throws IOException;
+    }
+
+    /**
+     * Writes a file in memory, with its header
+     * @param magic int magic number of the file
+     * @param body Body that writes the contents
+     * @return byte array of the file
+     */
+    public static byte[] write(int magic, Body body) throws IOException
+    {
+        ByteArrayOutputStream byteArrayOutputStream = new ByteArrayOutputStream();
+        DataOutputStream output = new DataOutputStream(byteArrayOutputStream);
+        output.writeInt(magic);
+        output.writeByte(VERSION);
+        body.writeTo(output);
+        output.flush();
+        return byteArrayOutputStream.toByteArray();
+    }
+
+    /**
+     * Returns whether or not a file was written with Java serialization by an older version of the mod
+     * @param fileName String name of the file
+     * @return true if the file needs to be migrated
+     * @throws IOException if the file does not exist or cannot be read, an empty file is not legacy
+     */
+    public static boolean isLegacy(String fileName) throws IOException
+    {
+        try(DataInputStream input = FileUtility.openFile(fileName))
+        {
+            return input.readUnsignedShort() == SERIALIZATION_MAGIC;
+        }
+        catch(EOFException e)
+        {
+            return false;
+        }
+    }
+
+    /**
+     * Opens a file for reading and checks its header
+     * @param fileName String name of the file
+     * @param magic int magic number the file should start with
+     * @return DataInputStream positioned at the start of the contents, must be closed by the caller
+     * @throws IOException if the file cannot be read, holds something else or was written by a newer version
+     */
+    public static DataInputStream open(String fileName, int magic) throws IOException
+    {
+        DataInputStream input = FileUtility.openFile(fileName);
+        try
+        {
+            if(input.readInt() != magic) throw new IOException(fileName + " is not a valid save file");
+            if(input.readByte() > VERSION) throw new IOException(fileName + " was saved by a newer version");
+            return input;
+        }
+        catch(IOException e)
+        {
+            input.close();
+            throw e;
+        }
+    }
+
+    /**
+     * Writes a UUID
+     * @param output DataOutput to write to
+     * @param uuid UUID to write
+     */
+    public static void writeUUID(DataOutput output, UUID uuid) throws IOException
+    {
+        output.writeLong(uuid.getMostSignificantBits());
+        output.writeLong(uuid.getLeastSignificantBits());
+    }
+
+    /**
+     * Reads a UUID
+     * @param input DataInput to read from
+     * @return UUID that was read
+     */
+    public static UUID readUUID(DataInput input) throws IOException
+    {
+        return new UUID(input.readLong(), input.readLong());
+    }
+}
@@ -0,0 +1,287 @@
+package parallaxscience.guilds.protection;
+
+import net.minecraft.entity.player.EntityPlayer;
+import net.minecraft.util.math.BlockPos;
+import net.minecraft.world.World;
+import parallaxscience.guilds.guild.ChunkCache;
+import parallaxscience.guilds.guild.ChunkMap;
+import parallaxscience.guilds.guild.Guild;
+import parallaxscience.guilds.guild.GuildRegistry;
+import parallaxscience.guilds.raid.Raid;
+import parallaxscience.guilds.raid.RaidCache;
+import java.util.HashMap;
+import java.util.UUID;
+
+/**
+ * Class that decides how a player relates to the territory they are acting in
+ * Replaces the owner, guild, raid and membership lookups each protection event used to repeat
+ * The last decision of every player is remembered until they act in another chunk,
+ * or until a claim, guild membership or raid phase changes
+ * Must only be used on the server thread
+ * @author Tristan Jay
+ */
+public final class ProtectionService
+{
+    /**
+     * Enum used to represent how a player relates to a chunk
+     */
+    public enum Decision
+    {
+        WILDERNESS(false, false, false),
+        MEMBER(true, false, false),
+        MEMBER_RAID_PENDING(true, true, false),
+        MEMBER_RAID_ACTIVE(true, true, true),
+        OUTSIDER(false, false, false),
+        OUTSIDER_RAID_PENDING(false, true, false),
+        OUTSIDER_RAID_ACTIVE(false, true, true);
+
+        /**
+         * Whether or not the player is a member of the guild that owns the chunk
+         */
+        private final boolean isMember;
+
+        /**
+         * Whether or not the guild that owns the chunk is being raided
+         */
+        private final boolean hasRaid;
+
+        /**
+         * Whether or not the raid is past its preparation phase
+         */
+        private final boolean isRaidActive;
+
+        /**
+         * Constructor for the Decision enum
+         * @param isMember whether or not the player is a member of the owning guild
+         * @param hasRaid whether or not the owning guild is being raided
+         * @param isRaidActive whether or not the raid is past its preparation phase
+         */
+        Decision(boolean isMember, boolean hasRaid, boolean isRaidActive)
+        {
+            this.isMember = isMember;
+            this.hasRaid = hasRaid;
+            this.isRaidActive = isRaidActive;
+        }
+
+        /**
+         * Returns whether or not the chunk is claimed by a guild
+         * @return true if the chunk is claimed
+         */
+        public boolean isClaimed()
+        {
+            return this != WILDERNESS;
+        }
+
+        /**
+         * Returns whether or not the player is a member of the guild that owns the chunk
+         * @return true if the player is a member
+         */
+        public boolean isMember()
+        {
+            return isMember;
+        }
+
+        /**
+         * Returns whether or not the chunk is claimed by someone else's guild
+         * @return true if the chunk is claimed and the player is not a member
+         */
+        public boolean isOutsider()
+        {
+            return this != WILDERNESS && !isMember;
+        }
+
+        /**
+         * Returns whether or not the guild that owns the chunk is being raided
+         * @return true if there is a raid, in any phase
+         */
+        public boolean hasRaid()
+        {
+            return hasRaid;
+        }
+
+        /**
+         * Returns whether or not the guild that owns the chunk is being raided and the raid has begun
+         * @return true if the raid is past its preparation phase
+         */
+        public boolean isRaidActive()
+        {
+            return isRaidActive;
+        }
+    }
+
+    /**
+     * Bumped whenever a chunk is claimed or abandoned, or a dimension's claims are loaded or unloaded
+     */
+    private static int claimGeneration;
+
+    /**
+     * Bumped whenever a player joins or leaves a guild
+     */
+    private static int memberGeneration;
+
+    /**
+     * Bumped whenever a raid starts, begins its active phase, or ends
+     */
+    private static int raidGeneration;
+
+    /**
+     * The last decision made for every player
+     * Key is the UUID of the player
+     */
+    private static final HashMap<UUID, Memo> memos = new HashMap<>();
+
+    /**
+     * Returns how a player relates to the chunk a block is in
+     * @param player EntityPlayer acting on the block
+     * @param world World the block is in
+     * @param blockPos BlockPos of the block
+     * @return Decision for the player and chunk
+     */
+    public static Decision getDecision(EntityPlayer player, World world, BlockPos blockPos)
+    {
+        return getDecision(player, world.provider.getDimension(), blockPos.getX() >> 4, blockPos.getZ() >> 4);
+    }
+
+    /**
+     * Returns how a player relates to the chunk a block is in
+     * @param player EntityPlayer acting on the block
+     * @param dimension int dimension of the block
+     * @param blockPos BlockPos of the block
+     * @return Decision for the player and chunk
+     */
+    public static Decision getDecision(EntityPlayer player, int dimension, BlockPos blockPos)
+    {
+        return getDecision(player, dimension, blockPos.getX() >> 4, blockPos.getZ() >> 4);
+    }
+
+    /**
+     * Returns how a player relates to a chunk
+     * Reuses the player's last decision if it was made for the same chunk and nothing has changed since
+     * Otherwise unclaimed chunks are answered from the claim bitmap, and the owner is only looked up for claimed chunks
+     * @param player EntityPlayer acting in the chunk
+     * @param dimension int dimension of the chunk
+     * @param x X coordinate for the chunk
+     * @param z Z coordinate for the chunk
+     * @return Decision for the player and chunk
+     */
+    public static Decision getDecision(EntityPlayer player, int dimension, int x, int z)
+    {
+        UUID playerId = player.getUniqueID();
+        long chunk = ChunkMap.pack(x, z);
+        Memo memo = memos.get(playerId);
+        if(memo != null && memo.dimension == dimension && memo.chunk == chunk && memo.claimGeneration == claimGeneration
+                && memo.memberGeneration == memberGeneration && memo.raidGeneration == raidGeneration)
+        {
+            return memo.decision;
+        }
+        if(!ChunkCache.isClaimed(dimension, x, z)) return Decision.WILDERNESS;
+
+        if(memo == null)
+        {
+            memo = new Memo();
+            memos.put(playerId, memo);
+        }
+
+        memo.dimension = dimension;
+        memo.chunk = chunk;
+        memo.claimGeneration = claimGeneration;
+        memo.memberGeneration = memberGeneration;
+        memo.raidGeneration = raidGeneration;
+        memo.decision = decide(playerId, ChunkCache.getChunkOwnerId(dimension, x, z));
+        return memo.decision;
+    }
+
+    /**
+     * Called whenever a claim changes
+     * Invalidates every remembered decision
+     */
+    public static void claimsChanged()
+    {
+        claimGeneration++;
+    }
+
+    /**
+     * Called whenever a player joins or leaves a guild
+     * Invalidates every remembered decision
+     */
+    public static void membershipChanged()
+    {
+        memberGeneration++;
+    }
+
+    /**
+     * Called whenever a raid changes phase
+     * Invalidates every remembered decision
+     */
+    public static void raidsChanged()
+    {
+        raidGeneration++;
+    }
+
+    /**
+     * Forgets the remembered decision of a player
+     * Called whenever a player logs out
+     * @param player UUID of the player
+     */
+    public static void forget(UUID player)
+    {
+        memos.remove(player);
+    }
+
+    /**
+     * Works out how a player relates to a claimed chunk
+     * @param player UUID of the player
+     * @param ownerId int id of the guild that owns the chunk
+     * @return Decision for the player and chunk
+     */
+    private static Decision decide(UUID player, int ownerId)
+    {
+        Guild owner = GuildRegistry.getGuild(ownerId);
+        if(owner == null) return Decision.WILDERNESS;
+
+        Raid raid = RaidCache.getRaid(owner.getId());
+        if(owner.isMember(player))
+        {
+            if(raid == null) return Decision.MEMBER;
+            return raid.isActive() ? Decision.MEMBER_RAID_ACTIVE : Decision.MEMBER_RAID_PENDING;
+        }
+        if(raid == null) return Decision.OUTSIDER;
+        return raid.isActive() ? Decision.OUTSIDER_RAID_ACTIVE : Decision.OUTSIDER_RAID_PENDING;
+    }
+
+    /**
+     * The last decision made for a player, and what it was made for
+     */
+    private static final class Memo
+    {
+        /**
+         * Dimension of the chunk
+         */
+        private int dimension;
+
+        /**
+         * Packed coordinates of the chunk
+         */
+        private long chunk;
+
+        /**
+         * Claim generation the decision was made in
+         */
+        private int claimGeneration;
+
+        /**
+         * Membership generation the decision was made in
+         */
+        private int memberGeneration;
+
+        /**
+         * Raid generation the decision was made in
+         */
+        private int raidGeneration;
+
+        /**
+         * The decision
+         */
+        private Decision decision;
+    }
+}
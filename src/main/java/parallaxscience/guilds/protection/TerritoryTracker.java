@@ -0,0 +1,94 @@
+package parallaxscience.guilds.protection;
+
+import net.minecraft.entity.player.EntityPlayerMP;
+import parallaxscience.guilds.config.GeneralConfig;
+import parallaxscience.guilds.guild.ChunkCache;
+import parallaxscience.guilds.guild.GuildRegistry;
+import parallaxscience.guilds.utility.MessageUtility;
+import java.util.HashMap;
+import java.util.UUID;
+
+/**
+ * Class that keeps track of the territory every player is standing in
+ * Players are only told about a territory change when the territory actually changes,
+ * and at most once per configured cooldown, as an action bar message
+ * Must only be used on the server thread
+ * @author Tristan Jay
+ */
+public final class TerritoryTracker
+{
+    /**
+     * Where every player is, keyed by the UUID of the player
+     */
+    private static final HashMap<UUID, Presence> presences = new HashMap<>();
+
+    /**
+     * Called whenever a player enters a chunk
+     * Does nothing else unless the chunk belongs to a different territory than the last one,
+     * or a change held back by the cooldown has not been announced yet
+     * @param player EntityPlayerMP that entered the chunk
+     * @param dimension int dimension of the chunk
+     * @param x X coordinate for the chunk
+     * @param z Z coordinate for the chunk
+     */
+    public static void enterChunk(EntityPlayerMP player, int dimension, int x, int z)
+    {
+        int territory = ChunkCache.getChunkOwnerId(dimension, x, z);
+
+        UUID playerId = player.getUniqueID();
+        Presence presence = presences.get(playerId);
+        if(presence == null)
+        {
+            presence = new Presence();
+            presences.put(playerId, presence);
+        }
+        else if(presence.dimension == dimension && presence.territory == territory && territory == presence.announced) return;
+
+        presence.dimension = dimension;
+        presence.territory = territory;
+        if(territory == presence.announced) return;
+
+        long now = System.currentTimeMillis();
+        if(now - presence.lastMessage < GeneralConfig.territoryMessageCooldown) return;
+        presence.announced = territory;
+        presence.lastMessage = now;
+        if(territory == GuildRegistry.NONE) MessageUtility.chunkStatus(player, "Entering Wilderness.");
+        else MessageUtility.chunkStatus(player, "Entering the Territory of " + GuildRegistry.getGuildName(territory));
+    }
+
+    /**
+     * Forgets where a player is
+     * Called whenever a player logs out
+     * @param player UUID of the player
+     */
+    public static void forget(UUID player)
+    {
+        presences.remove(player);
+    }
+
+    /**
+     * The territory a player is in, and the last one they were told about
+     */
+    private static final class Presence
+    {
+        /**
+         * Dimension the player is in
+         */
+        private int dimension;
+
+        /**
+         * Id of the guild whose territory the player is in, or GuildRegistry.NONE in the wilderness
+         */
+        private int territory = GuildRegistry.NONE;
+
+        /**
+         * Id of the territory the player was last told they were entering
+         */
+        private int announced = GuildRegistry.NONE;
+
+        /**
+         * System time the player was last sent a territory message
+         */
+        private long lastMessage;
+    }
+}
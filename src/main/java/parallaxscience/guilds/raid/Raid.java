@@ -1,15 +1,17 @@
 package parallaxscience.guilds.raid;
 
-import net.minecraftforge.common.MinecraftForge;
-import parallaxscience.guilds.guild.GuildCache;
+import parallaxscience.guilds.config.RaidConfig;
+import parallaxscience.guilds.guild.GuildRegistry;
+import parallaxscience.guilds.protection.ProtectionService;
 import parallaxscience.guilds.utility.MessageUtility;
 import java.util.ArrayList;
+import java.util.HashSet;
 import java.util.UUID;
 
 /**
  * Class that represents a raid
  * Contains a list of all attackers and defenders, and other raid information
- * Note: raids are identified by the name of the defending guild
+ * Note: raids are identified by the id of the defending guild
  * @author Tristan Jay
  */
 public class Raid
@@ -28,26 +30,27 @@ public class Raid
     }
 
     /**
-     * Name of the defending guild, used as the ID for the raid
+     * Id of the defending guild, used as the ID for the raid
+     * @see GuildRegistry
      */
-    private String defendingGuild;
+    private int defendingGuild;
 
     /**
-     * List of all defender UUIDs
+     * Set of all defender UUIDs
      */
-    private ArrayList<UUID> defenders;
+    private HashSet<UUID> defenders;
 
     /**
-     * List of all attacker UUIDs
+     * Set of all attacker UUIDs
      */
-    private ArrayList<UUID> attackers;
+    private HashSet<UUID> attackers;
 
     /**
-     * Timer used to handle preparation and active phase countdowns
-     * Instantiated when preparation phase is entered
-     * @see RaidTimer
+     * Scheduled end of the current phase
+     * Set when the preparation phase is entered
+     * @see RaidScheduler
      */
-    private RaidTimer raidTimer;
+    private RaidScheduler.Task phaseTask;
 
     /**
      * The current phase that the raid is in
@@ -58,16 +61,18 @@ public class Raid
     /**
      * Constructor for the raid class
      * Called whenever a new raid is joined
-     * @param defendingGuild the guild being raided
+     * @param defendingGuild id of the guild being raided
      * @param primaryAttacker the first person to join the raid
      */
-    Raid(String defendingGuild, UUID primaryAttacker)
+    Raid(int defendingGuild, UUID primaryAttacker)
     {
         this.defendingGuild = defendingGuild;
-        attackers = new ArrayList<>();
-        defenders = GuildCache.getGuild(defendingGuild).getAllMembers();
+        attackers = new HashSet<>();
+        defenders = new HashSet<>(GuildRegistry.getGuild(defendingGuild).getAllMembers());
         attackers.add(primaryAttacker);
         phase = raidPhase.SETUP;
+        for(UUID defender : defenders) RaidCache.indexPlayer(defender, this);
+        RaidCache.indexPlayer(primaryAttacker, this);
     }
 
     /**
@@ -100,14 +105,13 @@ public class Raid
     /**
      * Starts the raid
      * This does not begin the actual raid phase, but begins the preparation phase
-     * Also instantiates and activates the raid timer
-     * @see RaidTimer
+     * Also schedules the start of the active phase
+     * @see RaidScheduler
      */
     public void startRaid()
     {
         phase = raidPhase.PREP;
-        raidTimer = new RaidTimer(this);
-        MinecraftForge.EVENT_BUS.register(raidTimer);
+        phaseTask = RaidCache.getScheduler().scheduleSeconds(RaidConfig.prepSeconds, this::setActive);
     }
 
     /**
@@ -129,6 +133,7 @@ public class Raid
     {
         attackers.remove(player);
         defenders.remove(player);
+        RaidCache.unindexPlayer(player, this);
         if(attackers.isEmpty())
         {
             if(isActive()) RaidCache.stopRaid(defendingGuild, true);
@@ -143,14 +148,17 @@ public class Raid
 
     /**
      * Sets the raid active
-     * Used by the Raid Timer
+     * Run by the raid scheduler once the preparation phase is over
      * This is where the raid actually starts
-     * @see RaidTimer
+     * Also schedules the end of the raid, which the defenders win if it is reached
+     * @see RaidScheduler
      */
     void setActive()
     {
         phase = raidPhase.ACTIVE;
-        MessageUtility.raidMessageAll("The raid on " + defendingGuild + " has begun!");
+        ProtectionService.raidsChanged();
+        phaseTask = RaidCache.getScheduler().scheduleSeconds(RaidConfig.raidSeconds, () -> RaidCache.stopRaid(defendingGuild, true));
+        MessageUtility.raidMessageAll("The raid on " + getDefendingGuild() + " has begun!");
     }
 
     /**
@@ -158,6 +166,15 @@ public class Raid
      * @return String name of the defending guild
      */
     public String getDefendingGuild() {
+        return GuildRegistry.getGuildName(defendingGuild);
+    }
+
+    /**
+     * Returns the id of the defending guild of the raid
+     * @return int id of the defending guild
+     * @see GuildRegistry
+     */
+    public int getDefendingGuildId() {
         return defendingGuild;
     }
 
@@ -168,6 +185,7 @@ public class Raid
     public void addAttacker(UUID player)
     {
         attackers.add(player);
+        RaidCache.indexPlayer(player, this);
     }
 
     /**
@@ -177,14 +195,27 @@ public class Raid
     public void addDefender(UUID player)
     {
         defenders.add(player);
+        RaidCache.indexPlayer(player, this);
+    }
+
+    /**
+     * Returns every attacker and defender of the raid
+     * Used to clear the player index once the raid is over
+     * @return ArrayList of player UUIDs
+     */
+    ArrayList<UUID> getRaiders()
+    {
+        ArrayList<UUID> raiders = new ArrayList<>(attackers);
+        raiders.addAll(defenders);
+        return raiders;
     }
 
     /**
-     * Stops and unregisters the raid timer
-     * @see RaidTimer
+     * Cancels the scheduled end of the current phase
+     * @see RaidScheduler
      */
     void stopTimer()
     {
-        MinecraftForge.EVENT_BUS.unregister(raidTimer);
+        if(phaseTask != null) phaseTask.cancel();
     }
 }
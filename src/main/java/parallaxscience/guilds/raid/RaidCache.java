@@ -1,17 +1,35 @@
 package parallaxscience.guilds.raid;
 
+import net.minecraft.block.Block;
 import net.minecraft.block.state.IBlockState;
+import net.minecraft.entity.player.EntityPlayerMP;
+import net.minecraft.inventory.IInventory;
+import net.minecraft.item.ItemStack;
+import net.minecraft.nbt.NBTTagCompound;
+import net.minecraft.server.MinecraftServer;
+import net.minecraft.tileentity.TileEntity;
 import net.minecraft.util.math.BlockPos;
 import net.minecraft.world.World;
+import net.minecraft.world.WorldServer;
 import net.minecraftforge.common.MinecraftForge;
 import net.minecraftforge.fml.common.event.FMLServerStartingEvent;
+import net.minecraftforge.items.CapabilityItemHandler;
+import net.minecraftforge.items.IItemHandler;
 import parallaxscience.guilds.Guilds;
+import parallaxscience.guilds.capability.PlayerData;
 import parallaxscience.guilds.events.RaidEvents;
+import parallaxscience.guilds.guild.Guild;
 import parallaxscience.guilds.guild.GuildCache;
+import parallaxscience.guilds.guild.GuildRegistry;
+import parallaxscience.guilds.protection.ProtectionService;
 import parallaxscience.guilds.utility.FileUtility;
 import parallaxscience.guilds.utility.MessageUtility;
 import java.io.*;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.BitSet;
 import java.util.HashMap;
+import java.util.List;
 import java.util.Map;
 import java.util.UUID;
 
@@ -23,30 +41,70 @@ import java.util.UUID;
 public class RaidCache
 {
     /**
-     * Filepath to the RaidCache save file location
+     * Filepath to the legacy RaidCache save file location
+     * Only read on startup, restore lists are now kept in the raid journal
      */
     private final static String fileName = FileUtility.guildDirectory + "/" + "RaidsCache.dat";
 
+    /**
+     * Filepath to the raid journal file location
+     */
+    private final static String journalFileName = FileUtility.guildDirectory + "/" + "RaidJournal.dat";
+
+    /**
+     * Journal of every block in the restore list
+     * @see RaidJournal
+     */
+    private static RaidJournal journal;
+
+    /**
+     * Restores the blocks of finished raids over several ticks
+     * @see RestoreScheduler
+     */
+    private static RestoreScheduler restoreScheduler;
+
+    /**
+     * Runs the raid phase changes and raid shield expiries
+     * Registered to the event bus once, for every raid
+     * @see RaidScheduler
+     */
+    private static RaidScheduler raidScheduler;
+
     /**
      * HashMap of raids
-     * Key is the name of the the defending guild
+     * Key is the id of the the defending guild
      * @see HashMap
+     * @see GuildRegistry
+     */
+    private static HashMap<Integer, Raid> raids;
+
+    /**
+     * The same raids, indexed by raid id
+     * Lets the protection events find a raid without boxing its id
      */
-    private static HashMap<String, Raid> raids;
+    private static Raid[] raidIndex;
 
     /**
-     * Minecraft world instance
-     * Used for the chunk restore
+     * Index of the raid every raider is a part of
+     * Key is the UUID of the player
+     * Kept in sync by the raid rosters, so a player's raid can be found without scanning every raid
      */
-    private static World world;
+    private static HashMap<UUID, Raid> playerRaids;
+
+    /**
+     * Minecraft server instance
+     * Used to find the world of each dimension for the chunk restore
+     */
+    private static MinecraftServer server;
 
     /**
      * List of blocks to be restored
      * Added whenever a block is changed during a raid
      * Removed whenever a raid is over
-     * The first key is the name of the raid
+     * Key is the id of the raid
+     * @see RaidRestore
      */
-    private static HashMap<String, HashMap<BlockPos, IBlockState>> blockRestore;
+    private static HashMap<Integer, RaidRestore> blockRestore;
 
     /**
      * RaidEvents instance
@@ -68,8 +126,23 @@ public class RaidCache
     public static void initialize()
     {
         raids = new HashMap<>();
+        raidIndex = new Raid[16];
+        playerRaids = new HashMap<>();
         raidEvents = new RaidEvents();
         blockRestore = new HashMap<>();
+        journal = new RaidJournal(journalFileName);
+        restoreScheduler = new RestoreScheduler();
+        raidScheduler = new RaidScheduler();
+        MinecraftForge.EVENT_BUS.register(raidScheduler);
+    }
+
+    /**
+     * Returns the raid scheduler
+     * @return RaidScheduler instance
+     */
+    static RaidScheduler getScheduler()
+    {
+        return raidScheduler;
     }
 
     /**
@@ -81,67 +154,112 @@ public class RaidCache
      */
     public static Raid getPlayerRaid(UUID player)
     {
-        for(Map.Entry<String, Raid> raidEntry : raids.entrySet())
+        return playerRaids.get(player);
+    }
+
+    /**
+     * Adds a player to the raid index
+     * A player that is already part of another raid stays indexed under that raid
+     * @param player UUID of player
+     * @param raid Raid the player has joined
+     */
+    static void indexPlayer(UUID player, Raid raid)
+    {
+        if(playerRaids.putIfAbsent(player, raid) == null) PlayerData.refresh(player);
+    }
+
+    /**
+     * Removes a player from the raid index
+     * Nothing changes if the player is indexed under another raid
+     * A player that is still part of another raid is indexed under that raid instead
+     * @param player UUID of player
+     * @param raid Raid the player has left
+     */
+    static void unindexPlayer(UUID player, Raid raid)
+    {
+        if(!playerRaids.remove(player, raid)) return;
+        for(Raid other : raids.values())
         {
-            Raid raid = raidEntry.getValue();
-            if(raid.isRaider(player)) return raid;
+            if(other != raid && other.isRaider(player))
+            {
+                playerRaids.put(player, other);
+                break;
+            }
         }
-        return null;
+        PlayerData.refresh(player);
     }
 
     /**
-     * Returns the reference to the named raid
-     * @param raidName String name of the raid, same as defending guild name
+     * Returns the reference to a raid
+     * @param raidId int id of the raid, same as defending guild id
      * @return Raid reference
      * @see Raid
      */
-    public static Raid getRaid(String raidName)
+    public static Raid getRaid(int raidId)
+    {
+        if(raidId <= GuildRegistry.NONE || raidId >= raidIndex.length) return null;
+        return raidIndex[raidId];
+    }
+
+    /**
+     * Returns the ids of every raid that is past its preparation phase
+     * Indexed by raid id, so it can be tested without boxing
+     * @return BitSet of raid ids, a copy that is not affected by later raid changes
+     */
+    public static BitSet getActiveRaidIds()
     {
-        return raids.get(raidName);
+        BitSet activeRaids = new BitSet(raidIndex.length);
+        for(Map.Entry<Integer, Raid> entry : raids.entrySet())
+        {
+            if(entry.getValue().isActive()) activeRaids.set(entry.getKey());
+        }
+        return activeRaids;
     }
 
     /**
      * Creates a new raid and adds it to the raid list
-     * @param raidName String name of the raid
+     * @param raidId int id of the raid, same as defending guild id
      * @param primaryAttacker UUID of primary attacker
      */
-    public static void createRaid(String raidName, UUID primaryAttacker)
+    public static void createRaid(int raidId, UUID primaryAttacker)
     {
-        raids.put(raidName, new Raid(raidName, primaryAttacker));
-        blockRestore.put(raidName, new HashMap<>());
+        restoreScheduler.finish(raidId);
+        Raid raid = new Raid(raidId, primaryAttacker);
+        raids.put(raidId, raid);
+        if(raidId >= raidIndex.length) raidIndex = Arrays.copyOf(raidIndex, Math.max(raidId + 1, raidIndex.length << 1));
+        raidIndex[raidId] = raid;
+        ProtectionService.raidsChanged();
+        blockRestore.put(raidId, new RaidRestore());
         if(!isActive) MinecraftForge.EVENT_BUS.register(raidEvents);
     }
 
     /**
-     * Stops a raid, removes it from the raid list, and calls the block restore
+     * Stops a raid, removes it from the raid list, and schedules the block restore
      * Called whenever either the timer runs out, or one side kills the other
-     * @param raidName String name of raid
+     * @param raidId int id of raid
      * @param defenseWon true if defense has won
      */
-    @SuppressWarnings("ResultOfMethodCallIgnored")
-    static void stopRaid(String raidName, boolean defenseWon)
+    static void stopRaid(int raidId, boolean defenseWon)
     {
-        Raid raid = getRaid(raidName);
+        Raid raid = getRaid(raidId);
         raid.stopTimer();
-        GuildCache.getGuild(raidName).resetRaidInterval();
+        String raidName = raid.getDefendingGuild();
+        Guild guild = GuildRegistry.getGuild(raidId);
+        guild.resetRaidInterval();
+        scheduleShieldExpiry(guild);
         MessageUtility.raidMessageAll("The raid on " + raidName + " is now over!");
         if(defenseWon) MessageUtility.raidMessageAll(raidName + " has successfully held off the attackers!");
         else MessageUtility.raidMessageAll("The attackers have successfully raided " + raidName + "!");
 
-        for(Map.Entry<BlockPos, IBlockState> blocks : blockRestore.get(raidName).entrySet())
-        {
-            restoreBlock(blocks.getKey(), blocks.getValue());
-        }
-        blockRestore.remove(raidName);
-
-        if(blockRestore.isEmpty())
-        {
-            File file = new File(fileName);
-            file.delete();
-        }
-        else saveRaid();
+        RaidRestore raidRestore = blockRestore.remove(raidId);
+        raidRestore.compressTiles(raidId, journal);
+        journal.flush();
+        restoreScheduler.schedule(raidId, raidRestore);
 
-        raids.remove(raidName);
+        raids.remove(raidId);
+        raidIndex[raidId] = null;
+        ProtectionService.raidsChanged();
+        for(UUID player : raid.getRaiders()) unindexPlayer(player, raid);
         if(raids.isEmpty())
         {
             MinecraftForge.EVENT_BUS.unregister(raidEvents);
@@ -152,79 +270,251 @@ public class RaidCache
     /**
      * Removes a raid from the raid list
      * Called whenever all of one side has left the raid before the active phase has started
-     * @param raid String name of the raid
+     * @param raidId int id of the raid
      */
-    static void cancelRaid(String raid)
+    static void cancelRaid(int raidId)
     {
-        raids.remove(raid);
+        Raid raid = raids.remove(raidId);
+        if(raid == null) return;
+        raidIndex[raidId] = null;
+        ProtectionService.raidsChanged();
+        raid.stopTimer();
+        for(UUID player : raid.getRaiders()) unindexPlayer(player, raid);
+        blockRestore.remove(raidId);
     }
 
     /**
      * Adds a block to the raid restore list
-     * @param raid String name of the raid
+     * Only the first change to a block is kept, and written to the raid journal
+     * If the block has a tile entity, its data is captured and its inventory is emptied,
+     * so the items cannot be both dropped and restored
+     * @param raidId int id of the raid
+     * @param world World the block is in
      * @param blockPos BlockPos of the block
      * @param blockState IBlockState of the block
+     * @return false if the block has an inventory that cannot be emptied, the change must then be cancelled
+     */
+    public static boolean addRestoreBlock(int raidId, World world, BlockPos blockPos, IBlockState blockState)
+    {
+        return addRestoreBlock(raidId, blockRestore.get(raidId), world, world.provider.getDimension(), blockPos, blockState);
+    }
+
+    /**
+     * Adds the current state of several blocks to the raid restore list
+     * Used for explosions, so the raid and dimension are only looked up once for the whole batch
+     * @param raidId int id of the raid
+     * @param world World the blocks are in
+     * @param blockPositions List of BlockPos of the blocks
+     * @return ArrayList of BlockPos with inventories that cannot be emptied, these must be kept out of the explosion
      */
-    public static void addRestoreBlock(String raid, BlockPos blockPos, IBlockState blockState)
+    public static ArrayList<BlockPos> addRestoreBlocks(int raidId, World world, List<BlockPos> blockPositions)
     {
-        HashMap<BlockPos, IBlockState> guildBlockRestore = blockRestore.get(raid);
-        if(!guildBlockRestore.containsKey(blockPos)) guildBlockRestore.put(blockPos, blockState);
-        saveRaid();
+        ArrayList<BlockPos> vetoed = new ArrayList<>();
+        RaidRestore raidRestore = blockRestore.get(raidId);
+        int dimension = world.provider.getDimension();
+        for(BlockPos blockPos : blockPositions)
+        {
+            if(!addRestoreBlock(raidId, raidRestore, world, dimension, blockPos, world.getBlockState(blockPos))) vetoed.add(blockPos);
+        }
+        return vetoed;
     }
 
     /**
-     * Saves the raid data to file
+     * Adds a block to the restore list of a raid and writes it to the raid journal
+     * Tile entities that are not an IInventory are emptied through their item handler,
+     * a handler that does not give up all of its items keeps the block from being changed at all
+     * @param raidId int id of the raid
+     * @param raidRestore RaidRestore of the raid
+     * @param world World the block is in
+     * @param dimension int dimension of the world
+     * @param blockPos BlockPos of the block
+     * @param blockState IBlockState of the block
+     * @return false if the block has an inventory that cannot be emptied
      */
-    private static void saveRaid()
+    private static boolean addRestoreBlock(int raidId, RaidRestore raidRestore, World world, int dimension, BlockPos blockPos, IBlockState blockState)
     {
-        FileUtility.saveToFile(fileName, blockRestore);
+        TileEntity tileEntity = null;
+        IItemHandler itemHandler = null;
+        if(blockState.getBlock().hasTileEntity(blockState))
+        {
+            tileEntity = world.getTileEntity(blockPos);
+            if(tileEntity != null && !(tileEntity instanceof IInventory) && tileEntity.hasCapability(CapabilityItemHandler.ITEM_HANDLER_CAPABILITY, null))
+            {
+                itemHandler = tileEntity.getCapability(CapabilityItemHandler.ITEM_HANDLER_CAPABILITY, null);
+                if(itemHandler != null && !emptyItems(itemHandler, true)) return false;
+            }
+        }
+
+        int stateId = Block.getStateId(blockState);
+        if(!raidRestore.add(dimension, blockPos, stateId)) return true;
+        journal.append(raidId, dimension, blockPos, stateId);
+
+        if(tileEntity == null) return true;
+        raidRestore.addTile(dimension, blockPos, tileEntity.writeToNBT(new NBTTagCompound()));
+        if(tileEntity instanceof IInventory) ((IInventory) tileEntity).clear();
+        else if(itemHandler != null) emptyItems(itemHandler, false);
+        return true;
+    }
+
+    /**
+     * Extracts every item from an item handler
+     * @param itemHandler IItemHandler to empty
+     * @param simulate true to only check that the handler can be emptied
+     * @return true if every slot gave up its whole stack
+     */
+    private static boolean emptyItems(IItemHandler itemHandler, boolean simulate)
+    {
+        for(int slot = 0; slot < itemHandler.getSlots(); slot++)
+        {
+            ItemStack stack = itemHandler.getStackInSlot(slot);
+            if(stack.isEmpty()) continue;
+            int count = stack.getCount();
+            if(itemHandler.extractItem(slot, count, simulate).getCount() != count) return false;
+        }
+        return true;
+    }
+
+    /**
+     * Writes the buffered raid journal records to file
+     * Compresses the tile entity data captured during the tick first
+     * Compacts the journal once it is mostly made up of finished raids
+     * Called at the end of every server tick while a raid is running
+     */
+    public static void flushJournal()
+    {
+        for(Map.Entry<Integer, RaidRestore> raidRestore : blockRestore.entrySet())
+        {
+            raidRestore.getValue().compressTiles(raidRestore.getKey(), journal);
+        }
+        if(journal.needsCompaction())
+        {
+            HashMap<Integer, RaidRestore> live = restoreScheduler.getPending();
+            live.putAll(blockRestore);
+            journal.compact(live);
+        }
+        else journal.flush();
+    }
+
+    /**
+     * Marks the blocks of a raid as restored in the raid journal
+     * Called by the restore scheduler once every block of the raid has been restored
+     * @param raidId int id of the raid
+     * @param restored number of blocks that were restored
+     */
+    static void restoreFinished(int raidId, int restored)
+    {
+        journal.raidOver(raidId, restored);
+    }
+
+    /**
+     * Schedules the notification that a guild's raid shield has run out
+     * @param guild Guild object reference
+     */
+    private static void scheduleShieldExpiry(Guild guild)
+    {
+        long remaining = guild.getShieldEnd() - System.currentTimeMillis();
+        if(remaining <= 0) return;
+        int guildId = guild.getId();
+        raidScheduler.schedule(remaining / 50, () -> shieldExpired(guildId));
+    }
+
+    /**
+     * Tells the online members of a guild that their raid shield has run out
+     * Reschedules itself if the shield was renewed, or if the server ran ahead of the clock
+     * @param guildId int id of the guild
+     */
+    private static void shieldExpired(int guildId)
+    {
+        Guild guild = GuildRegistry.getGuild(guildId);
+        if(guild == null || server == null) return;
+        if(guild.getShieldEnd() > System.currentTimeMillis())
+        {
+            scheduleShieldExpiry(guild);
+            return;
+        }
+        for(UUID member : guild.getAllMembers())
+        {
+            EntityPlayerMP player = server.getPlayerList().getPlayerByUUID(member);
+            if(player != null) MessageUtility.raidMessage(player, "Your guild's raid shield has expired!");
+        }
+    }
+
+    /**
+     * Returns the world of a dimension
+     * @param dimension int dimension id
+     * @return WorldServer of the dimension, or null if the server has not started
+     */
+    static WorldServer getWorld(int dimension)
+    {
+        if(server == null) return null;
+        return server.getWorld(dimension);
     }
 
     /**
      * Used to restore blocks that had not been restored before the server crashed
      * Called whenever the server starts up
+     * Replays the raid journal, as well as the restore file used by older versions
+     * The restore file used by older versions only holds overworld blocks
+     * The journal is rewritten with only the replayed blocks, which are then scheduled to be restored
+     * Also schedules the expiry of every raid shield that was still up when the server stopped
      * @param event FMLServerStartingEvent
      * @see FMLServerStartingEvent
      */
-    @SuppressWarnings("unchecked")
+    @SuppressWarnings({"unchecked", "ResultOfMethodCallIgnored"})
     public static void massRestore(FMLServerStartingEvent event)
     {
-        world = event.getServer().getWorld(0);
+        server = event.getServer();
+        for(Guild guild : GuildCache.getGuilds()) scheduleShieldExpiry(guild);
+
+        HashMap<Integer, RaidRestore> oldRestore = new HashMap<>();
         try
         {
-            HashMap<String, HashMap<BlockPos, IBlockState>> oldRestore = (HashMap<String, HashMap<BlockPos, IBlockState>>) FileUtility.readFromFile(fileName);
-
-            for(Map.Entry<String, HashMap<BlockPos, IBlockState>> raids : oldRestore.entrySet())
-            {
-                for(Map.Entry<BlockPos, IBlockState> blocks : raids.getValue().entrySet())
-                {
-                    restoreBlock(blocks.getKey(), blocks.getValue());
-                }
-            }
+            oldRestore = RaidJournal.replay(journalFileName);
         }
-        catch(IOException e)
+        catch(FileNotFoundException e)
         {
             Guilds.logger.info("No chunks to restore!");
         }
-        catch(ClassNotFoundException e)
+        catch(IOException e)
+        {
+            Guilds.logger.info("ERROR: IOException on raid journal file!");
+        }
+
+        File legacyFile = new File(fileName);
+        if(legacyFile.exists())
         {
-            Guilds.logger.info("ERROR: ClassNotFoundException on raid block restore file!");
+            try
+            {
+                HashMap<?, HashMap<BlockPos, IBlockState>> legacyRestore = (HashMap<?, HashMap<BlockPos, IBlockState>>) FileUtility.readFromFile(fileName);
+                //Legacy raids are keyed by guild name, give them ids that no guild can have
+                int legacyId = -1;
+                for(HashMap<BlockPos, IBlockState> raidRestore : legacyRestore.values())
+                {
+                    RaidRestore converted = new RaidRestore();
+                    for(Map.Entry<BlockPos, IBlockState> blocks : raidRestore.entrySet())
+                    {
+                        converted.add(0, blocks.getKey(), Block.getStateId(blocks.getValue()));
+                    }
+                    if(converted.size() > 0) oldRestore.put(legacyId--, converted);
+                }
+            }
+            catch(IOException e)
+            {
+                Guilds.logger.info("ERROR: IOException on raid block restore file!");
+            }
+            catch(ClassNotFoundException e)
+            {
+                Guilds.logger.info("ERROR: ClassNotFoundException on raid block restore file!");
+            }
         }
-    }
 
-    /**
-     * Sets a block in a certain position
-     * Used by the chunk restore to restore a block to its original state
-     * @param blockPos BlockPos of block to be restored
-     * @param iBlockState IBlockState of block to be restored
-     * @see BlockPos
-     * @see IBlockState
-     */
-    private static void restoreBlock(BlockPos blockPos, IBlockState iBlockState)
-    {
-        if(!world.isRemote)
+        if(oldRestore.isEmpty()) journal.delete();
+        else journal.compact(oldRestore);
+        legacyFile.delete();
+
+        for(Map.Entry<Integer, RaidRestore> raidRestore : oldRestore.entrySet())
         {
-            world.setBlockState(blockPos, iBlockState);
+            restoreScheduler.schedule(raidRestore.getKey(), raidRestore.getValue());
         }
     }
 }
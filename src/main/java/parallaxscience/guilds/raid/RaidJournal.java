@@ -0,0 +1,380 @@
+package parallaxscience.guilds.raid;
+
+import net.minecraft.util.math.BlockPos;
+import parallaxscience.guilds.Guilds;
+import parallaxscience.guilds.utility.FileUtility;
+import java.io.*;
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * Append-only journal of the blocks that need to be restored after a raid
+ * Every changed block is written as one small fixed-size record, instead of rewriting the whole restore list
+ * Records are buffered and flushed once per tick
+ * The journal is replayed on startup to restore blocks after a crash
+ * @see RaidCache
+ * @author Tristan Jay
+ */
+final class RaidJournal
+{
+    /**
+     * Marks the start of a journal file
+     */
+    private static final int MAGIC = 0x47524A31;
+
+    /**
+     * Record type of a block that needs to be restored
+     * Followed by the raid id, dimension id, packed block position and block state id
+     */
+    private static final byte BLOCK = 0;
+
+    /**
+     * Record type of a raid whose blocks have all been restored
+     * Followed by the raid id
+     */
+    private static final byte RAID_OVER = 1;
+
+    /**
+     * Record type of a compacted chunk section
+     * Followed by the raid id, dimension id, chunk coordinates, section index and the section itself
+     * @see RestoreSection#writeTo(DataOutputStream)
+     */
+    private static final byte SECTION = 2;
+
+    /**
+     * Record type of the tile entity data of a block
+     * Followed by the raid id, dimension id, chunk coordinates, packed position inside the chunk and the compressed data
+     * @see RestoreChunk#tileKey(net.minecraft.util.math.BlockPos)
+     */
+    private static final byte TILE = 3;
+
+    /**
+     * Minimum number of records before the journal is compacted
+     */
+    private static final int COMPACT_THRESHOLD = 4096;
+
+    /**
+     * Filepath to the journal file
+     */
+    private final String fileName;
+
+    /**
+     * Buffered output stream to the journal file
+     * Null while the journal file is closed
+     */
+    private DataOutputStream output;
+
+    /**
+     * Number of records in the journal file
+     */
+    private int records;
+
+    /**
+     * Number of block records that still need to be restored
+     */
+    private int live;
+
+    /**
+     * Constructor for the RaidJournal class
+     * The journal file is only created once the first record is written
+     * @param fileName String path to the journal file
+     */
+    RaidJournal(String fileName)
+    {
+        this.fileName = fileName;
+    }
+
+    /**
+     * Writes a block that needs to be restored to the journal
+     * @param raidId int id of the raid
+     * @param dimension int dimension id
+     * @param blockPos BlockPos of the block
+     * @param stateId block state id to restore the block to
+     */
+    void append(int raidId, int dimension, BlockPos blockPos, int stateId)
+    {
+        try
+        {
+            open();
+            writeBlock(output, raidId, dimension, blockPos, stateId);
+            records++;
+            live++;
+        }
+        catch(IOException e)
+        {
+            Guilds.logger.info("ERROR: IOException while trying to write to " + fileName);
+        }
+    }
+
+    /**
+     * Writes the compressed tile entity data of a block to the journal
+     * Does not count as a live block, the block itself has its own record
+     * @param raidId int id of the raid
+     * @param chunk RestoreChunk the block is in
+     * @param key packed position inside the chunk
+     * @param data compressed tile entity data
+     */
+    void appendTile(int raidId, RestoreChunk chunk, int key, byte[] data)
+    {
+        try
+        {
+            open();
+            writeTile(output, raidId, chunk, key, data);
+            records++;
+        }
+        catch(IOException e)
+        {
+            Guilds.logger.info("ERROR: IOException while trying to write to " + fileName);
+        }
+    }
+
+    /**
+     * Marks all of the blocks of a raid as restored
+     * Written straight away, since it can happen after the raid events stop flushing the journal
+     * Deletes the journal file if no other raid has blocks left to restore
+     * @param raidId int id of the raid
+     * @param restored number of blocks that were restored
+     */
+    void raidOver(int raidId, int restored)
+    {
+        live -= restored;
+        if(live <= 0)
+        {
+            delete();
+            return;
+        }
+        try
+        {
+            open();
+            output.writeByte(RAID_OVER);
+            output.writeInt(raidId);
+            output.flush();
+            records++;
+        }
+        catch(IOException e)
+        {
+            Guilds.logger.info("ERROR: IOException while trying to write to " + fileName);
+        }
+    }
+
+    /**
+     * Returns whether or not the journal holds enough finished records to be worth compacting
+     * @return true if the journal should be compacted
+     */
+    boolean needsCompaction()
+    {
+        return records > COMPACT_THRESHOLD && records > live * 2;
+    }
+
+    /**
+     * Rewrites the journal so it only holds the blocks that still need to be restored
+     * Blocks are written as palette-encoded chunk sections instead of single block records
+     * The new journal is written to a temporary file and forced to disk first, then moved over the old one,
+     * so a crash always leaves either the old or the new journal
+     * @param blockRestore the current restore lists, keyed by raid id
+     */
+    void compact(Map<Integer, RaidRestore> blockRestore)
+    {
+        close();
+        File temp = new File(fileName + ".tmp");
+        int written = 0;
+        try(FileOutputStream fileOutput = new FileOutputStream(temp))
+        {
+            DataOutputStream compacted = new DataOutputStream(new BufferedOutputStream(fileOutput));
+            compacted.writeInt(MAGIC);
+            for(Map.Entry<Integer, RaidRestore> raidRestore : blockRestore.entrySet())
+            {
+                for(RestoreChunk chunk : raidRestore.getValue().getChunks())
+                {
+                    for(int sectionY = 0; sectionY < RestoreChunk.SECTIONS; sectionY++)
+                    {
+                        RestoreSection section = chunk.getSection(sectionY);
+                        if(section == null || section.size() == 0) continue;
+                        compacted.writeByte(SECTION);
+                        compacted.writeInt(raidRestore.getKey());
+                        compacted.writeInt(chunk.getDimension());
+                        compacted.writeInt(chunk.getX());
+                        compacted.writeInt(chunk.getZ());
+                        compacted.writeByte(sectionY);
+                        section.writeTo(compacted);
+                    }
+                    HashMap<Integer, byte[]> tiles = chunk.getTiles();
+                    if(tiles == null) continue;
+                    for(Map.Entry<Integer, byte[]> tile : tiles.entrySet())
+                    {
+                        writeTile(compacted, raidRestore.getKey(), chunk, tile.getKey(), tile.getValue());
+                    }
+                }
+                written += raidRestore.getValue().size();
+            }
+            compacted.flush();
+            fileOutput.getChannel().force(true);
+        }
+        catch(IOException e)
+        {
+            Guilds.logger.info("ERROR: IOException while trying to compact " + fileName);
+            return;
+        }
+
+        try
+        {
+            FileUtility.replaceFile(temp, fileName);
+        }
+        catch(IOException e)
+        {
+            Guilds.logger.info("ERROR: IOException while trying to replace " + fileName + ", the old journal is kept");
+            return;
+        }
+        //Sections are counted by the blocks they hold, so compaction is not retriggered straight away
+        records = written;
+        live = written;
+    }
+
+    /**
+     * Writes any buffered records to the journal file
+     */
+    void flush()
+    {
+        if(output == null) return;
+        try
+        {
+            output.flush();
+        }
+        catch(IOException e)
+        {
+            Guilds.logger.info("ERROR: IOException while trying to write to " + fileName);
+        }
+    }
+
+    /**
+     * Closes and deletes the journal file
+     */
+    @SuppressWarnings("ResultOfMethodCallIgnored")
+    void delete()
+    {
+        close();
+        new File(fileName).delete();
+        records = 0;
+        live = 0;
+    }
+
+    /**
+     * Reads every block that still needs to be restored from a journal file
+     * A record cut off by a crash ends the replay
+     * @param fileName String path to the journal file
+     * @return HashMap of blocks to restore, keyed by raid id
+     * @throws IOException if the journal file cannot be read
+     */
+    static HashMap<Integer, RaidRestore> replay(String fileName) throws IOException
+    {
+        HashMap<Integer, RaidRestore> blockRestore = new HashMap<>();
+        try(DataInputStream input = new DataInputStream(new BufferedInputStream(new FileInputStream(fileName))))
+        {
+            if(input.readInt() != MAGIC) throw new IOException("Not a raid journal: " + fileName);
+            while(true)
+            {
+                byte type = input.readByte();
+                int raidId = input.readInt();
+                if(type == RAID_OVER)
+                {
+                    blockRestore.remove(raidId);
+                    continue;
+                }
+                RaidRestore raidRestore = blockRestore.computeIfAbsent(raidId, id -> new RaidRestore());
+                int dimension = input.readInt();
+                if(type == SECTION)
+                {
+                    int x = input.readInt();
+                    int z = input.readInt();
+                    raidRestore.readSection(dimension, x, z, input.readUnsignedByte(), input);
+                }
+                else if(type == TILE)
+                {
+                    int x = input.readInt();
+                    int z = input.readInt();
+                    int key = input.readUnsignedShort();
+                    int length = input.readInt();
+                    if(length < 0) throw new IOException("Negative tile entity data length");
+                    byte[] data = new byte[length];
+                    input.readFully(data);
+                    raidRestore.readTile(dimension, x, z, key, data);
+                }
+                else raidRestore.add(dimension, BlockPos.fromLong(input.readLong()), input.readInt());
+            }
+        }
+        catch(EOFException e)
+        {
+            return blockRestore;
+        }
+    }
+
+    /**
+     * Opens the journal file for appending, if it is not already open
+     * Writes the file header if the file is new
+     * @throws IOException if the file cannot be opened
+     */
+    private void open() throws IOException
+    {
+        if(output != null) return;
+        File file = new File(fileName);
+        boolean isNew = !file.exists() || file.length() == 0;
+        output = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(file, true)));
+        if(isNew) output.writeInt(MAGIC);
+    }
+
+    /**
+     * Flushes and closes the journal file
+     */
+    private void close()
+    {
+        if(output == null) return;
+        try
+        {
+            output.close();
+        }
+        catch(IOException e)
+        {
+            Guilds.logger.info("ERROR: IOException while trying to close " + fileName);
+        }
+        output = null;
+    }
+
+    /**
+     * Writes a single block record
+     * @param stream DataOutputStream to write to
+     * @param raidId int id of the raid
+     * @param dimension int dimension id
+     * @param blockPos BlockPos of the block
+     * @param stateId block state id to restore the block to
+     * @throws IOException if the record cannot be written
+     */
+    private static void writeBlock(DataOutputStream stream, int raidId, int dimension, BlockPos blockPos, int stateId) throws IOException
+    {
+        stream.writeByte(BLOCK);
+        stream.writeInt(raidId);
+        stream.writeInt(dimension);
+        stream.writeLong(blockPos.toLong());
+        stream.writeInt(stateId);
+    }
+
+    /**
+     * Writes a single tile entity record
+     * @param stream DataOutputStream to write to
+     * @param raidId int id of the raid
+     * @param chunk RestoreChunk the block is in
+     * @param key packed position inside the chunk
+     * @param data compressed tile entity data
+     * @throws IOException if the record cannot be written
+     */
+    private static void writeTile(DataOutputStream stream, int raidId, RestoreChunk chunk, int key, byte[] data) throws IOException
+    {
+        stream.writeByte(TILE);
+        stream.writeInt(raidId);
+        stream.writeInt(chunk.getDimension());
+        stream.writeInt(chunk.getX());
+        stream.writeInt(chunk.getZ());
+        stream.writeShort(key);
+        stream.writeInt(data.length);
+        stream.write(data);
+    }
+}
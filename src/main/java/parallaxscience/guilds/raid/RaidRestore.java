@@ -0,0 +1,143 @@
+package parallaxscience.guilds.raid;
+
+import net.minecraft.nbt.NBTTagCompound;
+import net.minecraft.util.math.BlockPos;
+import parallaxscience.guilds.guild.ChunkMap;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * The blocks of a single raid that need to be restored once the raid is over
+ * Grouped by dimension and chunk, so the restore can work one chunk at a time
+ * @see RestoreChunk
+ * @author Tristan Jay
+ */
+final class RaidRestore
+{
+    /**
+     * Chunks with changed blocks
+     * The first key is the dimension id, the second key is the packed chunk coordinates
+     * @see ChunkMap#pack(int, int)
+     */
+    private final HashMap<Integer, HashMap<Long, RestoreChunk>> chunks = new HashMap<>();
+
+    /**
+     * Chunks with tile entity data that has not been compressed yet
+     */
+    private final ArrayList<RestoreChunk> pendingTileChunks = new ArrayList<>();
+
+    /**
+     * Number of blocks in the restore
+     */
+    private int size;
+
+    /**
+     * Adds a block to the restore, unless the position already has one
+     * @param dimension int dimension id
+     * @param blockPos BlockPos of the block
+     * @param stateId block state id to restore the block to
+     * @return true if the block was added
+     */
+    boolean add(int dimension, BlockPos blockPos, int stateId)
+    {
+        if(!getOrCreateChunk(dimension, blockPos.getX() >> 4, blockPos.getZ() >> 4).add(blockPos, stateId)) return false;
+        size++;
+        return true;
+    }
+
+    /**
+     * Reads a compacted chunk section into the restore
+     * @param dimension int dimension id
+     * @param x X coordinate of the chunk
+     * @param z Z coordinate of the chunk
+     * @param sectionY index of the section, from 0 to 15
+     * @param stream DataInputStream to read from
+     * @throws IOException if the section cannot be read
+     * @see RestoreSection#writeTo(DataOutputStream)
+     */
+    void readSection(int dimension, int x, int z, int sectionY, DataInputStream stream) throws IOException
+    {
+        if(sectionY < 0 || sectionY >= RestoreChunk.SECTIONS) throw new IOException("Section out of range");
+        size += getOrCreateChunk(dimension, x, z).getOrCreateSection(sectionY).readFrom(stream);
+    }
+
+    /**
+     * Adds the tile entity data of a block
+     * The block itself must already be in the restore
+     * @param dimension int dimension id
+     * @param blockPos BlockPos of the block
+     * @param tileData NBTTagCompound written by the tile entity
+     */
+    void addTile(int dimension, BlockPos blockPos, NBTTagCompound tileData)
+    {
+        RestoreChunk chunk = getOrCreateChunk(dimension, blockPos.getX() >> 4, blockPos.getZ() >> 4);
+        if(chunk.addTile(blockPos, tileData)) pendingTileChunks.add(chunk);
+    }
+
+    /**
+     * Reads compressed tile entity data into the restore
+     * @param dimension int dimension id
+     * @param x X coordinate of the chunk
+     * @param z Z coordinate of the chunk
+     * @param key packed position inside the chunk
+     * @param data compressed tile entity data
+     * @see RestoreChunk#tileKey(BlockPos)
+     */
+    void readTile(int dimension, int x, int z, int key, byte[] data)
+    {
+        getOrCreateChunk(dimension, x, z).putTile(key, data);
+    }
+
+    /**
+     * Compresses the tile entity data captured since the last call and writes it to the raid journal
+     * @param raidId int id of the raid
+     * @param journal RaidJournal to write to
+     */
+    void compressTiles(int raidId, RaidJournal journal)
+    {
+        for(RestoreChunk chunk : pendingTileChunks)
+        {
+            for(Map.Entry<Integer, byte[]> tile : chunk.compressTiles().entrySet())
+            {
+                journal.appendTile(raidId, chunk, tile.getKey(), tile.getValue());
+            }
+        }
+        pendingTileChunks.clear();
+    }
+
+    /**
+     * Returns a chunk of the restore, creating it if needed
+     * @param dimension int dimension id
+     * @param x X coordinate of the chunk
+     * @param z Z coordinate of the chunk
+     * @return RestoreChunk of the chunk
+     */
+    RestoreChunk getOrCreateChunk(int dimension, int x, int z)
+    {
+        return chunks.computeIfAbsent(dimension, id -> new HashMap<>()).computeIfAbsent(ChunkMap.pack(x, z), key -> new RestoreChunk(dimension, x, z));
+    }
+
+    /**
+     * Returns every chunk of the restore
+     * @return ArrayList of chunks
+     */
+    ArrayList<RestoreChunk> getChunks()
+    {
+        ArrayList<RestoreChunk> list = new ArrayList<>();
+        for(HashMap<Long, RestoreChunk> dimensionChunks : chunks.values()) list.addAll(dimensionChunks.values());
+        return list;
+    }
+
+    /**
+     * Returns the number of blocks in the restore
+     * @return int of block count
+     */
+    int size()
+    {
+        return size;
+    }
+}
@@ -0,0 +1,198 @@
+package parallaxscience.guilds.raid;
+
+import net.minecraftforge.fml.common.eventhandler.SubscribeEvent;
+import net.minecraftforge.fml.common.gameevent.TickEvent;
+import java.util.ArrayDeque;
+
+/**
+ * Scheduler that runs raid phase changes and raid shield expiries on the server tick
+ * Uses a hierarchical timing wheel, so a tick only costs as much as the tasks that are due
+ * Each wheel has 64 slots, a task is placed in the lowest wheel that can hold its delay
+ * and moved down a wheel whenever the wheel below it wraps around
+ * Registered to the event bus once, for every raid
+ * @see RaidCache
+ * @author Tristan Jay
+ */
+final class RaidScheduler
+{
+    /**
+     * Number of bits of the tick used by each wheel
+     */
+    private static final int SLOT_BITS = 6;
+
+    /**
+     * Number of slots in each wheel
+     */
+    private static final int SLOTS = 1 << SLOT_BITS;
+
+    /**
+     * Number of wheels, together they cover 64^4 ticks, a little over nine days
+     */
+    private static final int WHEELS = 4;
+
+    /**
+     * The slots of every wheel
+     * Tasks with a longer delay than the wheels cover wait in the overflow list
+     */
+    private final ArrayDeque<Task>[][] wheels;
+
+    /**
+     * Tasks with a longer delay than the wheels cover
+     */
+    private final ArrayDeque<Task> overflow = new ArrayDeque<>();
+
+    /**
+     * Number of ticks the scheduler has run
+     */
+    private long currentTick;
+
+    /**
+     * Handle to a scheduled task
+     * Used to cancel the task before it runs
+     */
+    static final class Task
+    {
+        /**
+         * Tick the task is run on
+         */
+        private final long deadline;
+
+        /**
+         * Code to run
+         */
+        private final Runnable action;
+
+        /**
+         * Whether or not the task has been cancelled
+         * Cancelled tasks are dropped the next time their slot is visited
+         */
+        private boolean cancelled;
+
+        /**
+         * Constructor for the Task class
+         * @param deadline tick the task is run on
+         * @param action Runnable to run
+         */
+        private Task(long deadline, Runnable action)
+        {
+            this.deadline = deadline;
+            this.action = action;
+        }
+
+        /**
+         * Cancels the task, it will not run
+         */
+        void cancel()
+        {
+            cancelled = true;
+        }
+    }
+
+    /**
+     * Constructor for the RaidScheduler class
+     * Creates an empty scheduler
+     */
+    @SuppressWarnings("unchecked")
+    RaidScheduler()
+    {
+        wheels = new ArrayDeque[WHEELS][SLOTS];
+        for(int wheel = 0; wheel < WHEELS; wheel++)
+        {
+            for(int slot = 0; slot < SLOTS; slot++) wheels[wheel][slot] = new ArrayDeque<>();
+        }
+    }
+
+    /**
+     * Schedules a task
+     * @param delayTicks number of ticks from now to run the task, at least one
+     * @param action Runnable to run
+     * @return Task handle that can be used to cancel the task
+     */
+    Task schedule(long delayTicks, Runnable action)
+    {
+        Task task = new Task(currentTick + Math.max(1, delayTicks), action);
+        insert(task);
+        return task;
+    }
+
+    /**
+     * Schedules a task
+     * @param delaySeconds number of seconds from now to run the task
+     * @param action Runnable to run
+     * @return Task handle that can be used to cancel the task
+     */
+    Task scheduleSeconds(long delaySeconds, Runnable action)
+    {
+        return schedule(delaySeconds * 20, action);
+    }
+
+    /**
+     * Called at the end of every server tick
+     * Moves tasks down from the higher wheels that wrapped around, then runs the tasks due this tick
+     * @param event ServerTickEvent
+     * @see TickEvent.ServerTickEvent
+     */
+    @SubscribeEvent
+    @SuppressWarnings("unused")
+    public void onServerTick(TickEvent.ServerTickEvent event)
+    {
+        if(event.phase != TickEvent.Phase.END) return;
+
+        currentTick++;
+        if((currentTick & ((1L << (SLOT_BITS * WHEELS)) - 1)) == 0) cascade(overflow);
+        for(int wheel = WHEELS - 1; wheel > 0; wheel--)
+        {
+            if((currentTick & ((1L << (SLOT_BITS * wheel)) - 1)) == 0) cascade(wheels[wheel][slot(currentTick, wheel)]);
+        }
+
+        ArrayDeque<Task> due = wheels[0][slot(currentTick, 0)];
+        Task task;
+        while((task = due.poll()) != null)
+        {
+            if(!task.cancelled) task.action.run();
+        }
+    }
+
+    /**
+     * Places a task in the lowest wheel that can hold its remaining delay
+     * @param task Task to place
+     */
+    private void insert(Task task)
+    {
+        long delay = task.deadline - currentTick;
+        for(int wheel = 0; wheel < WHEELS; wheel++)
+        {
+            if(delay < 1L << (SLOT_BITS * (wheel + 1)))
+            {
+                wheels[wheel][slot(task.deadline, wheel)].add(task);
+                return;
+            }
+        }
+        overflow.add(task);
+    }
+
+    /**
+     * Empties a slot and places its tasks again, which moves them to a lower wheel
+     * @param slot ArrayDeque of tasks
+     */
+    private void cascade(ArrayDeque<Task> slot)
+    {
+        int count = slot.size();
+        for(int i = 0; i < count; i++)
+        {
+            Task task = slot.poll();
+            if(!task.cancelled) insert(task);
+        }
+    }
+
+    /**
+     * Returns the slot of a tick in a wheel
+     * @param tick tick to find the slot of
+     * @param wheel index of the wheel
+     * @return index of the slot
+     */
+    private static int slot(long tick, int wheel)
+    {
+        return (int) (tick >>> (SLOT_BITS * wheel)) & (SLOTS - 1);
+    }
+}
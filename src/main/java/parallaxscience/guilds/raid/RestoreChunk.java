@@ -0,0 +1,269 @@
+package parallaxscience.guilds.raid;
+
+import net.minecraft.nbt.CompressedStreamTools;
+import net.minecraft.nbt.NBTTagCompound;
+import net.minecraft.util.math.BlockPos;
+import parallaxscience.guilds.Guilds;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Map;
+
+/**
+ * The blocks of a single chunk that need to be restored after a raid
+ * Split into chunk sections, which are only created once a block inside them changes
+ * Also holds the tile entity data of changed blocks that had a tile entity
+ * @see RestoreSection
+ * @author Tristan Jay
+ */
+final class RestoreChunk
+{
+    /**
+     * Number of chunk sections in a chunk
+     */
+    static final int SECTIONS = 16;
+
+    /**
+     * Dimension id of the chunk
+     */
+    private final int dimension;
+
+    /**
+     * X coordinate of the chunk
+     */
+    private final int x;
+
+    /**
+     * Z coordinate of the chunk
+     */
+    private final int z;
+
+    /**
+     * Chunk sections from bottom to top, null if no block in the section has changed
+     */
+    private final RestoreSection[] sections = new RestoreSection[SECTIONS];
+
+    /**
+     * Tile entity data captured this tick, not compressed yet
+     * Key is the packed position inside the chunk
+     * @see #tileKey(BlockPos)
+     */
+    private HashMap<Integer, NBTTagCompound> pendingTiles;
+
+    /**
+     * Compressed tile entity data
+     * Key is the packed position inside the chunk
+     * @see #tileKey(BlockPos)
+     */
+    private HashMap<Integer, byte[]> tiles;
+
+    /**
+     * Constructor for the RestoreChunk class
+     * @param dimension int dimension id
+     * @param x X coordinate of the chunk
+     * @param z Z coordinate of the chunk
+     */
+    RestoreChunk(int dimension, int x, int z)
+    {
+        this.dimension = dimension;
+        this.x = x;
+        this.z = z;
+    }
+
+    /**
+     * Adds a block to the chunk, unless the position already has one
+     * @param blockPos BlockPos of the block, must be inside the chunk
+     * @param stateId block state id to restore the block to
+     * @return true if the block was added
+     */
+    boolean add(BlockPos blockPos, int stateId)
+    {
+        int y = blockPos.getY();
+        if(y < 0 || y >= SECTIONS * 16) return false;
+        return getOrCreateSection(y >> 4).add(RestoreSection.pack(blockPos.getX() & 15, y & 15, blockPos.getZ() & 15), stateId);
+    }
+
+    /**
+     * Returns a chunk section, creating it if needed
+     * @param sectionY index of the section, from 0 to 15
+     * @return RestoreSection of the section
+     */
+    RestoreSection getOrCreateSection(int sectionY)
+    {
+        RestoreSection section = sections[sectionY];
+        if(section == null)
+        {
+            section = new RestoreSection();
+            sections[sectionY] = section;
+        }
+        return section;
+    }
+
+    /**
+     * Returns a chunk section
+     * @param sectionY index of the section, from 0 to 15
+     * @return RestoreSection of the section, or null if no block in it has changed
+     */
+    RestoreSection getSection(int sectionY)
+    {
+        return sections[sectionY];
+    }
+
+    /**
+     * Returns the position of a block in a chunk section
+     * @param sectionY index of the section, from 0 to 15
+     * @param position packed position inside the section
+     * @return BlockPos of the block
+     */
+    BlockPos getBlockPos(int sectionY, int position)
+    {
+        return new BlockPos(x << 4 | position & 15, sectionY << 4 | position >> 8, z << 4 | position >> 4 & 15);
+    }
+
+    /**
+     * Packs the position of a block inside its chunk
+     * Packed as y << 8 | z << 4 | x, so it fits in an unsigned short
+     * @param blockPos BlockPos of the block
+     * @return packed position inside the chunk
+     */
+    static int tileKey(BlockPos blockPos)
+    {
+        return blockPos.getY() << 8 | (blockPos.getZ() & 15) << 4 | blockPos.getX() & 15;
+    }
+
+    /**
+     * Returns the position of a block from its packed position inside the chunk
+     * @param key packed position inside the chunk
+     * @return BlockPos of the block
+     */
+    BlockPos getTilePos(int key)
+    {
+        return new BlockPos(x << 4 | key & 15, key >> 8, z << 4 | key >> 4 & 15);
+    }
+
+    /**
+     * Adds the tile entity data of a block
+     * The data is kept as is until the end of the tick, so capturing it stays cheap
+     * @param blockPos BlockPos of the block
+     * @param tileData NBTTagCompound written by the tile entity
+     * @return true if the chunk had no tile entity data waiting to be compressed yet
+     */
+    boolean addTile(BlockPos blockPos, NBTTagCompound tileData)
+    {
+        boolean first = pendingTiles == null;
+        if(first) pendingTiles = new HashMap<>();
+        pendingTiles.put(tileKey(blockPos), tileData);
+        return first;
+    }
+
+    /**
+     * Adds compressed tile entity data
+     * Used when reading the raid journal
+     * @param key packed position inside the chunk
+     * @param data compressed tile entity data
+     */
+    void putTile(int key, byte[] data)
+    {
+        if(tiles == null) tiles = new HashMap<>();
+        tiles.put(key, data);
+    }
+
+    /**
+     * Compresses the tile entity data captured this tick
+     * @return HashMap of the newly compressed data, keyed by packed position inside the chunk
+     */
+    HashMap<Integer, byte[]> compressTiles()
+    {
+        HashMap<Integer, byte[]> compressed = new HashMap<>();
+        if(pendingTiles == null) return compressed;
+        for(Map.Entry<Integer, NBTTagCompound> tile : pendingTiles.entrySet())
+        {
+            try
+            {
+                ByteArrayOutputStream data = new ByteArrayOutputStream();
+                CompressedStreamTools.writeCompressed(tile.getValue(), data);
+                compressed.put(tile.getKey(), data.toByteArray());
+            }
+            catch(IOException e)
+            {
+                Guilds.logger.info("ERROR: IOException while compressing tile entity data!");
+            }
+        }
+        pendingTiles = null;
+        for(Map.Entry<Integer, byte[]> tile : compressed.entrySet()) putTile(tile.getKey(), tile.getValue());
+        return compressed;
+    }
+
+    /**
+     * Returns the compressed tile entity data of the chunk
+     * @return HashMap of compressed data keyed by packed position inside the chunk, or null if there is none
+     */
+    HashMap<Integer, byte[]> getTiles()
+    {
+        return tiles;
+    }
+
+    /**
+     * Returns the tile entity data of a block
+     * @param key packed position inside the chunk
+     * @return NBTTagCompound of the tile entity, or null if the block had no tile entity
+     */
+    NBTTagCompound getTile(int key)
+    {
+        if(pendingTiles != null && pendingTiles.containsKey(key)) return pendingTiles.get(key);
+        if(tiles == null || !tiles.containsKey(key)) return null;
+        try
+        {
+            return CompressedStreamTools.readCompressed(new ByteArrayInputStream(tiles.get(key)));
+        }
+        catch(IOException e)
+        {
+            Guilds.logger.info("ERROR: IOException while reading tile entity data!");
+            return null;
+        }
+    }
+
+    /**
+     * Returns the packed positions of every block with tile entity data
+     * @return int array of packed positions inside the chunk
+     */
+    int[] getTileKeys()
+    {
+        HashSet<Integer> keys = new HashSet<>();
+        if(tiles != null) keys.addAll(tiles.keySet());
+        if(pendingTiles != null) keys.addAll(pendingTiles.keySet());
+        int[] array = new int[keys.size()];
+        int i = 0;
+        for(int key : keys) array[i++] = key;
+        return array;
+    }
+
+    /**
+     * Returns the dimension of the chunk
+     * @return int dimension id
+     */
+    int getDimension()
+    {
+        return dimension;
+    }
+
+    /**
+     * Returns the x coordinate of the chunk
+     * @return X coordinate of the chunk
+     */
+    int getX()
+    {
+        return x;
+    }
+
+    /**
+     * Returns the z coordinate of the chunk
+     * @return Z coordinate of the chunk
+     */
+    int getZ()
+    {
+        return z;
+    }
+}
@@ -0,0 +1,204 @@
+package parallaxscience.guilds.raid;
+
+import net.minecraft.block.Block;
+import net.minecraft.block.state.IBlockState;
+import net.minecraft.nbt.NBTTagCompound;
+import net.minecraft.network.play.server.SPacketChunkData;
+import net.minecraft.server.management.PlayerChunkMapEntry;
+import net.minecraft.tileentity.TileEntity;
+import net.minecraft.util.math.BlockPos;
+import net.minecraft.world.WorldServer;
+import net.minecraft.world.chunk.Chunk;
+import net.minecraftforge.common.MinecraftForge;
+import net.minecraftforge.fml.common.eventhandler.SubscribeEvent;
+import net.minecraftforge.fml.common.gameevent.TickEvent;
+import parallaxscience.guilds.config.RaidConfig;
+import java.util.ArrayDeque;
+import java.util.HashMap;
+
+/**
+ * Class that restores the blocks of finished raids over several ticks
+ * Blocks are set directly in the chunk, without neighbour updates
+ * Tile entities are recreated by the chunk and then given back their saved data
+ * Each restored chunk is sent to its watching players once, instead of once per block
+ * Only registered to the event bus while there is something to restore
+ * @see RaidCache
+ * @author Tristan Jay
+ */
+final class RestoreScheduler
+{
+    /**
+     * Bit mask of every chunk section, used to resend a whole chunk
+     */
+    private static final int ALL_SECTIONS = 0xFFFF;
+
+    /**
+     * Restores that have not finished yet, in the order they were scheduled
+     */
+    private final ArrayDeque<RestoreJob> jobs = new ArrayDeque<>();
+
+    /**
+     * Whether or not the scheduler is registered to the event bus
+     */
+    private boolean isRegistered;
+
+    /**
+     * Schedules the blocks of a raid to be restored
+     * @param raidId int id of the raid
+     * @param raidRestore RaidRestore of the raid
+     */
+    void schedule(int raidId, RaidRestore raidRestore)
+    {
+        jobs.add(new RestoreJob(raidId, raidRestore));
+        if(!isRegistered)
+        {
+            MinecraftForge.EVENT_BUS.register(this);
+            isRegistered = true;
+        }
+    }
+
+    /**
+     * Returns the blocks of every restore that has not finished yet
+     * Used when the raid journal is compacted, so unfinished restores survive a crash
+     * @return HashMap of blocks to restore, keyed by raid id
+     */
+    HashMap<Integer, RaidRestore> getPending()
+    {
+        HashMap<Integer, RaidRestore> pending = new HashMap<>();
+        for(RestoreJob job : jobs) pending.put(job.raidId, job.raidRestore);
+        return pending;
+    }
+
+    /**
+     * Finishes the restore of a raid straight away, if it is still scheduled
+     * Used before a guild is raided again, so the two restores cannot overlap
+     * @param raidId int id of the raid
+     */
+    void finish(int raidId)
+    {
+        for(RestoreJob job : jobs)
+        {
+            if(job.raidId != raidId) continue;
+            while(!job.chunks.isEmpty()) restoreChunk(job.chunks.poll());
+            jobs.remove(job);
+            RaidCache.restoreFinished(raidId, job.raidRestore.size());
+            break;
+        }
+        if(jobs.isEmpty()) unregister();
+    }
+
+    /**
+     * Called at the end of every server tick while there are blocks to restore
+     * Restores whole chunks until the configured time budget for the tick has been used up
+     * At least one chunk is restored every tick, so restores always make progress
+     * @param event ServerTickEvent
+     * @see TickEvent.ServerTickEvent
+     */
+    @SubscribeEvent
+    @SuppressWarnings("unused")
+    public void onServerTick(TickEvent.ServerTickEvent event)
+    {
+        if(event.phase != TickEvent.Phase.END) return;
+
+        long deadline = System.nanoTime() + RaidConfig.restoreBudget * 1000000L;
+        do
+        {
+            RestoreJob job = jobs.peek();
+            if(job == null) break;
+            RestoreChunk chunkRestore = job.chunks.poll();
+            if(chunkRestore != null) restoreChunk(chunkRestore);
+            if(job.chunks.isEmpty())
+            {
+                jobs.poll();
+                RaidCache.restoreFinished(job.raidId, job.raidRestore.size());
+            }
+        }
+        while(System.nanoTime() < deadline);
+
+        if(jobs.isEmpty()) unregister();
+    }
+
+    /**
+     * Restores every block of a single chunk
+     * Light is only rechecked where a restored block changes how light spreads
+     * @param chunkRestore RestoreChunk of the chunk
+     */
+    private static void restoreChunk(RestoreChunk chunkRestore)
+    {
+        WorldServer world = RaidCache.getWorld(chunkRestore.getDimension());
+        if(world == null) return;
+
+        Chunk chunk = world.getChunkFromChunkCoords(chunkRestore.getX(), chunkRestore.getZ());
+        for(int sectionY = 0; sectionY < RestoreChunk.SECTIONS; sectionY++)
+        {
+            RestoreSection section = chunkRestore.getSection(sectionY);
+            if(section == null) continue;
+            for(int i = 0; i < section.size(); i++)
+            {
+                BlockPos blockPos = chunkRestore.getBlockPos(sectionY, section.getPosition(i));
+                IBlockState blockState = Block.getStateById(section.getStateId(i));
+                IBlockState oldState = chunk.setBlockState(blockPos, blockState);
+                if(oldState == null) continue;
+                if(oldState.getLightValue() != blockState.getLightValue() || oldState.getLightOpacity() != blockState.getLightOpacity())
+                {
+                    world.checkLight(blockPos);
+                }
+            }
+        }
+        for(int key : chunkRestore.getTileKeys())
+        {
+            NBTTagCompound tileData = chunkRestore.getTile(key);
+            TileEntity tileEntity = tileData == null ? null : world.getTileEntity(chunkRestore.getTilePos(key));
+            if(tileEntity == null) continue;
+            tileEntity.readFromNBT(tileData);
+            tileEntity.markDirty();
+        }
+        chunk.markDirty();
+
+        PlayerChunkMapEntry entry = world.getPlayerChunkMap().getEntry(chunkRestore.getX(), chunkRestore.getZ());
+        if(entry != null && entry.isSentToPlayers()) entry.sendPacket(new SPacketChunkData(chunk, ALL_SECTIONS));
+    }
+
+    /**
+     * Unregisters the scheduler from the event bus
+     */
+    private void unregister()
+    {
+        if(!isRegistered) return;
+        MinecraftForge.EVENT_BUS.unregister(this);
+        isRegistered = false;
+    }
+
+    /**
+     * The blocks of a single raid that still need to be restored
+     */
+    private static final class RestoreJob
+    {
+        /**
+         * Id of the raid
+         */
+        private final int raidId;
+
+        /**
+         * Every block of the raid, kept until the restore has finished
+         */
+        private final RaidRestore raidRestore;
+
+        /**
+         * Chunks that still need to be restored
+         */
+        private final ArrayDeque<RestoreChunk> chunks;
+
+        /**
+         * Constructor for the RestoreJob class
+         * @param raidId int id of the raid
+         * @param raidRestore RaidRestore of the raid
+         */
+        private RestoreJob(int raidId, RaidRestore raidRestore)
+        {
+            this.raidId = raidId;
+            this.raidRestore = raidRestore;
+            chunks = new ArrayDeque<>(raidRestore.getChunks());
+        }
+    }
+}
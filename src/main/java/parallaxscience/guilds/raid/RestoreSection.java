@@ -0,0 +1,180 @@
+package parallaxscience.guilds.raid;
+
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.util.Arrays;
+
+/**
+ * The blocks of a single 16x16x16 chunk section that need to be restored after a raid
+ * Positions are stored as packed shorts and block states as indices into a palette of block state ids,
+ * so each block only takes a few bytes in memory and on disk
+ * @see RestoreChunk
+ * @author Tristan Jay
+ */
+final class RestoreSection
+{
+    /**
+     * Number of blocks in a chunk section
+     */
+    static final int BLOCKS = 16 * 16 * 16;
+
+    /**
+     * One bit for every position in the section, set if the position has a block to restore
+     */
+    private final long[] members = new long[BLOCKS / 64];
+
+    /**
+     * Block state ids used in the section
+     * @see net.minecraft.block.Block#getStateId
+     */
+    private int[] palette = new int[4];
+
+    /**
+     * Number of block state ids in the palette
+     */
+    private int paletteSize;
+
+    /**
+     * Packed positions of the blocks, in the order they were added
+     * Packed as y << 8 | z << 4 | x, the same order chunk sections use
+     */
+    private short[] positions = new short[16];
+
+    /**
+     * Palette index of each block, parallel to the position array
+     */
+    private short[] states = new short[16];
+
+    /**
+     * Number of blocks in the section
+     */
+    private int size;
+
+    /**
+     * Packs a position inside a section
+     * @param x X coordinate inside the section, 0 to 15
+     * @param y Y coordinate inside the section, 0 to 15
+     * @param z Z coordinate inside the section, 0 to 15
+     * @return packed position
+     */
+    static int pack(int x, int y, int z)
+    {
+        return y << 8 | z << 4 | x;
+    }
+
+    /**
+     * Adds a block to the section, unless the position already has one
+     * Only the first state of a block is kept, since that is the state it is restored to
+     * @param position packed position inside the section
+     * @param stateId block state id to restore the block to
+     * @return true if the block was added
+     */
+    boolean add(int position, int stateId)
+    {
+        long bit = 1L << position;
+        if((members[position >> 6] & bit) != 0) return false;
+        members[position >> 6] |= bit;
+
+        if(size == positions.length)
+        {
+            positions = Arrays.copyOf(positions, size << 1);
+            states = Arrays.copyOf(states, size << 1);
+        }
+        positions[size] = (short) position;
+        states[size] = (short) paletteIndex(stateId);
+        size++;
+        return true;
+    }
+
+    /**
+     * Returns the number of blocks in the section
+     * @return int of block count
+     */
+    int size()
+    {
+        return size;
+    }
+
+    /**
+     * Returns the packed position of a block
+     * @param i index of the block, from 0 to size - 1
+     * @return packed position inside the section
+     */
+    int getPosition(int i)
+    {
+        return positions[i] & 0xFFFF;
+    }
+
+    /**
+     * Returns the block state id a block is restored to
+     * @param i index of the block, from 0 to size - 1
+     * @return block state id
+     */
+    int getStateId(int i)
+    {
+        return palette[states[i]];
+    }
+
+    /**
+     * Writes the section
+     * The palette is written first, then each block as its packed position and palette index
+     * Palette indices take a single byte while the palette has at most 256 entries
+     * @param stream DataOutputStream to write to
+     * @throws IOException if the section cannot be written
+     */
+    void writeTo(DataOutputStream stream) throws IOException
+    {
+        stream.writeShort(paletteSize);
+        for(int i = 0; i < paletteSize; i++) stream.writeInt(palette[i]);
+        stream.writeShort(size);
+        boolean wide = paletteSize > 256;
+        for(int i = 0; i < size; i++)
+        {
+            stream.writeShort(positions[i]);
+            if(wide) stream.writeShort(states[i]);
+            else stream.writeByte(states[i]);
+        }
+    }
+
+    /**
+     * Reads blocks written by writeTo into the section
+     * Blocks whose position is already in the section are skipped
+     * @param stream DataInputStream to read from
+     * @return number of blocks that were added
+     * @throws IOException if the section cannot be read
+     */
+    int readFrom(DataInputStream stream) throws IOException
+    {
+        int added = 0;
+        int[] readPalette = new int[stream.readUnsignedShort()];
+        for(int i = 0; i < readPalette.length; i++) readPalette[i] = stream.readInt();
+        int count = stream.readUnsignedShort();
+        boolean wide = readPalette.length > 256;
+        for(int i = 0; i < count; i++)
+        {
+            int position = stream.readUnsignedShort() & (BLOCKS - 1);
+            int index = wide ? stream.readUnsignedShort() : stream.readUnsignedByte();
+            if(index >= readPalette.length) throw new IOException("Palette index out of range");
+            if(add(position, readPalette[index])) added++;
+        }
+        return added;
+    }
+
+    /**
+     * Returns the palette index of a block state id
+     * Adds the id to the palette if it is not already in it
+     * @param stateId block state id
+     * @return palette index
+     */
+    private int paletteIndex(int stateId)
+    {
+        for(int i = 0; i < paletteSize; i++)
+        {
+            if(palette[i] == stateId) return i;
+        }
+        if(paletteSize == palette.length) palette = Arrays.copyOf(palette, paletteSize << 1);
+        palette[paletteSize] = stateId;
+        return paletteSize++;
+    }
+}
@@ -1,7 +1,14 @@
 package parallaxscience.guilds.utility;
 
-import parallaxscience.guilds.Guilds;
 import java.io.*;
+import java.nio.ByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.file.AtomicMoveNotSupportedException;
+import java.nio.file.Files;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
 
 public class FileUtility
 {
@@ -36,26 +43,53 @@ public class FileUtility
 	}
 
 	/**
-	 * Saves an object to file
+	 * Opens a file for buffered reading
+	 * @param fileName String name of file to be read
+	 * @return DataInputStream of the file, must be closed by the caller
+	 */
+	public static DataInputStream openFile(String fileName) throws IOException
+	{
+		if(!new File(fileName).isFile()) throw new FileNotFoundException(fileName);
+		return new DataInputStream(new BufferedInputStream(Channels.newInputStream(FileChannel.open(Paths.get(fileName), StandardOpenOption.READ))));
+	}
+
+	/**
+	 * Writes bytes to file
+	 * The bytes are written to a temporary file first, which then replaces the file in a single atomic move,
+	 * so a crash while writing always leaves either the old or the new file behind
+	 * Creates the directory of the file if it does not exist
 	 * @param fileName String name of file to save to
-	 * @param object Object to save to file
+	 * @param data byte array to write
 	 */
 	@SuppressWarnings("ResultOfMethodCallIgnored")
-	public static void saveToFile(String fileName, Object object)
+	public static void writeToFile(String fileName, byte[] data) throws IOException
+	{
+		File temp = new File(fileName + ".tmp");
+		temp.getParentFile().mkdirs();
+		try(FileChannel channel = FileChannel.open(temp.toPath(), StandardOpenOption.CREATE, StandardOpenOption.WRITE, StandardOpenOption.TRUNCATE_EXISTING))
+		{
+			ByteBuffer buffer = ByteBuffer.wrap(data);
+			while(buffer.hasRemaining()) channel.write(buffer);
+			channel.force(true);
+		}
+		replaceFile(temp, fileName);
+	}
+
+	/**
+	 * Replaces a file with a temporary file that has already been forced to disk
+	 * Uses a single atomic move where the file system supports it, so the file is never missing
+	 * @param temp File to move into place
+	 * @param fileName String name of file to replace
+	 */
+	public static void replaceFile(File temp, String fileName) throws IOException
 	{
-		File file = new File(fileName);
 		try
 		{
-			file.createNewFile();
-			FileOutputStream fileOutputStream = new FileOutputStream(fileName);
-			ObjectOutputStream objectOutputStream = new ObjectOutputStream(fileOutputStream);
-			objectOutputStream.writeObject(object);
-			objectOutputStream.close();
-			fileOutputStream.close();
+			Files.move(temp.toPath(), Paths.get(fileName), StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
 		}
-		catch(Exception e)
+		catch(AtomicMoveNotSupportedException e)
 		{
-			Guilds.logger.info("ERROR: IOException while trying to save to " + fileName);
+			Files.move(temp.toPath(), Paths.get(fileName), StandardCopyOption.REPLACE_EXISTING);
 		}
 	}
 }
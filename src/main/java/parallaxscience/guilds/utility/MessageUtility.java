@@ -1,6 +1,7 @@
 package parallaxscience.guilds.utility;
 
 import net.minecraft.command.ICommandSender;
+import net.minecraft.entity.player.EntityPlayer;
 import net.minecraft.server.MinecraftServer;
 import net.minecraft.util.text.ITextComponent;
 import net.minecraft.util.text.Style;
@@ -94,4 +95,17 @@ public class MessageUtility
     {
         message(sender, message, chunkStyle);
     }
+
+    /**
+     * Shows a message above the player's hotbar instead of in chat
+     * Uses the chunk color style
+     * @param player EntityPlayer to show the message to
+     * @param message String to show to the player
+     */
+    public static void chunkStatus(EntityPlayer player, String message)
+    {
+        ITextComponent textComponent = new TextComponentString(message);
+        textComponent.setStyle(chunkStyle);
+        player.sendStatusMessage(textComponent, true);
+    }
 }
@@ -0,0 +1,244 @@
+package parallaxscience.guilds.events;
+
+import com.sun.management.ThreadMXBean;
+import net.minecraft.entity.EntityLivingBase;
+import net.minecraft.entity.passive.EntityCow;
+import net.minecraft.entity.player.EntityPlayerMP;
+import net.minecraft.util.DamageSource;
+import net.minecraft.util.EntityDamageSource;
+import net.minecraft.util.math.ChunkPos;
+import net.minecraft.world.WorldServer;
+import net.minecraftforge.event.entity.living.LivingDamageEvent;
+import net.minecraftforge.fml.common.FMLCommonHandler;
+import net.minecraftforge.fml.common.IFMLSidedHandler;
+import org.junit.AfterClass;
+import org.junit.BeforeClass;
+import org.junit.Test;
+import parallaxscience.guilds.guild.ChunkCache;
+import parallaxscience.guilds.guild.GuildCache;
+import parallaxscience.guilds.protection.ProtectionService;
+import parallaxscience.guilds.raid.RaidCache;
+import sun.misc.Unsafe;
+import java.lang.management.ManagementFactory;
+import java.lang.reflect.Field;
+import java.lang.reflect.Proxy;
+import java.util.UUID;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assume.assumeTrue;
+
+/**
+ * Allocation-regression test for the LivingDamageEvent protection path
+ * Measures the bytes ChunkEvents.onLivingDamage allocates per call
+ * Hits answered from the player's memo or the claim bitmap must not allocate at all,
+ * hits that look up the owning guild are allowed less than one small object per call
+ * Entities are created without running their constructors, the handler only reads their position, dimension, world and UUID
+ * @see ChunkEvents#onLivingDamage(LivingDamageEvent)
+ * @author Tristan Jay
+ */
+public class LivingDamageAllocationTest
+{
+    /**
+     * Calls made before measuring, so the handler is compiled and every cache is filled
+     */
+    private static final int WARMUP = 20000;
+
+    /**
+     * Calls that are measured
+     */
+    private static final int CALLS = 100000;
+
+    /**
+     * Bytes per call allowed on paths that look up the owning guild, less than one object header
+     */
+    private static final long LOOKUP_ALLOWANCE = 16;
+
+    /**
+     * The handler under test
+     */
+    private static final ChunkEvents handler = new ChunkEvents();
+
+    /**
+     * UUID of the guild master of the test guild
+     */
+    private static final UUID member = UUID.randomUUID();
+
+    /**
+     * UUID of a player that is not in any guild
+     */
+    private static final UUID outsider = UUID.randomUUID();
+
+    /**
+     * Server world every test entity is in
+     */
+    private static WorldServer world;
+
+    /**
+     * Allocation counter of the running JVM
+     */
+    private static ThreadMXBean threads;
+
+    /**
+     * FML's sided handler before the test replaced it
+     */
+    private static Object sidedHandler;
+
+    /**
+     * Sets up a guild that has claimed chunk 0, 0 of the overworld
+     * Skips the tests on JVMs that cannot count the bytes a thread allocates
+     */
+    @BeforeClass
+    public static void setUp() throws Exception
+    {
+        java.lang.management.ThreadMXBean threadBean = ManagementFactory.getThreadMXBean();
+        assumeTrue(threadBean instanceof ThreadMXBean && ((ThreadMXBean) threadBean).isThreadAllocatedMemorySupported());
+        threads = (ThreadMXBean) threadBean;
+        threads.setThreadAllocatedMemoryEnabled(true);
+
+        //PlayerData asks FML for the server, which has no sided handler outside of the game
+        Field sidedDelegate = getSidedDelegate();
+        sidedHandler = sidedDelegate.get(FMLCommonHandler.instance());
+        sidedDelegate.set(FMLCommonHandler.instance(), Proxy.newProxyInstance(IFMLSidedHandler.class.getClassLoader(), new Class<?>[]{IFMLSidedHandler.class}, (proxy, method, arguments) -> null));
+
+        GuildCache.initialize();
+        ChunkCache.initialize();
+        RaidCache.initialize();
+        ChunkCache.loadDimension(0);
+        GuildCache.addGuild("Allocation", member);
+        ChunkCache.setChunkOwner(0, new ChunkPos(0, 0), GuildCache.getGuild("Allocation").getId());
+
+        world = allocate(WorldServer.class);
+    }
+
+    /**
+     * Removes the test guild and its claims, forgets the players and gives FML its sided handler back
+     */
+    @AfterClass
+    public static void tearDown() throws Exception
+    {
+        if(threads == null) return;
+        if(GuildCache.getGuild("Allocation") != null) GuildCache.removeGuild(GuildCache.getGuild("Allocation"));
+        ChunkCache.initialize();
+        ProtectionService.forget(member);
+        ProtectionService.forget(outsider);
+        getSidedDelegate().set(FMLCommonHandler.instance(), sidedHandler);
+    }
+
+    /**
+     * A mob hit in the wilderness returns after the claim bitmap test
+     */
+    @Test
+    public void unclaimedChunkAllocatesNothing() throws Exception
+    {
+        LivingDamageEvent event = new DamageEvent(entity(EntityCow.class, UUID.randomUUID(), 1000, 1000), new EntityDamageSource("player", entity(EntityPlayerMP.class, outsider, 1000, 1000)));
+        assertEquals(0, bytesPerCall(event));
+        assertFalse(event.isCanceled());
+    }
+
+    /**
+     * A member hit in their own territory is protected through the player's memo
+     */
+    @Test
+    public void memberPlayerAllocatesNothing() throws Exception
+    {
+        LivingDamageEvent event = new DamageEvent(entity(EntityPlayerMP.class, member, 8, 8), new EntityDamageSource("player", entity(EntityPlayerMP.class, outsider, 8, 8)));
+        assertEquals(0, bytesPerCall(event));
+        assertTrue(event.isCanceled());
+    }
+
+    /**
+     * An animal hit by an outsider in claimed territory is protected through the owning guild
+     * This path looks the owner up on every hit, so it only has to stay below the allowance
+     */
+    @Test
+    public void mobStaysWithinAllowance() throws Exception
+    {
+        LivingDamageEvent event = new DamageEvent(entity(EntityCow.class, UUID.randomUUID(), 8, 8), new EntityDamageSource("player", entity(EntityPlayerMP.class, outsider, 8, 8)));
+        assertTrue(bytesPerCall(event) < LOOKUP_ALLOWANCE);
+        assertTrue(event.isCanceled());
+    }
+
+    /**
+     * Returns the average number of bytes the handler allocates per call
+     * @param event LivingDamageEvent to hand to the handler
+     * @return long of bytes allocated per call
+     */
+    private static long bytesPerCall(LivingDamageEvent event)
+    {
+        long thread = Thread.currentThread().getId();
+        for(int i = 0; i < WARMUP; i++) handler.onLivingDamage(event);
+        long before = threads.getThreadAllocatedBytes(thread);
+        for(int i = 0; i < CALLS; i++) handler.onLivingDamage(event);
+        return (threads.getThreadAllocatedBytes(thread) - before) / CALLS;
+    }
+
+    /**
+     * Returns FML's sided handler field, made accessible
+     * @return Field of FMLCommonHandler
+     */
+    private static Field getSidedDelegate() throws NoSuchFieldException
+    {
+        Field sidedDelegate = FMLCommonHandler.class.getDeclaredField("sidedDelegate");
+        sidedDelegate.setAccessible(true);
+        return sidedDelegate;
+    }
+
+    /**
+     * Creates an entity standing in the overworld
+     * @param type Class of the entity
+     * @param uuid UUID of the entity
+     * @param x double X coordinate of the entity
+     * @param z double Z coordinate of the entity
+     * @return entity that has not run its constructor
+     */
+    private static <T extends EntityLivingBase> T entity(Class<T> type, UUID uuid, double x, double z) throws Exception
+    {
+        T entity = allocate(type);
+        entity.world = world;
+        entity.dimension = 0;
+        entity.posX = x;
+        entity.posZ = z;
+        entity.setUniqueId(uuid);
+        return entity;
+    }
+
+    /**
+     * Allocates an object without running its constructor
+     * @param type Class of the object
+     * @return object with every field at its default value
+     */
+    private static <T> T allocate(Class<T> type) throws Exception
+    {
+        Field theUnsafe = Unsafe.class.getDeclaredField("theUnsafe");
+        theUnsafe.setAccessible(true);
+        return type.cast(((Unsafe) theUnsafe.get(null)).allocateInstance(type));
+    }
+
+    /**
+     * LivingDamageEvent that can be canceled outside of the game
+     * FML's event transformer adds the same override to every cancelable event when the game is running
+     */
+    private static final class DamageEvent extends LivingDamageEvent
+    {
+        /**
+         * Constructor for the DamageEvent class
+         * @param entity EntityLivingBase that is hit
+         * @param source DamageSource of the hit
+         */
+        private DamageEvent(EntityLivingBase entity, DamageSource source)
+        {
+            super(entity, source, 1.0f);
+        }
+
+        /**
+         * Returns whether or not the event can be canceled
+         * @return true
+         */
+        @Override
+        public boolean isCancelable()
+        {
+            return true;
+        }
+    }
+}